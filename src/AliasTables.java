@@ -0,0 +1,189 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.SplittableRandom;
+
+/**
+ * Walker alias tables for drawing a successor of a vertex, of a given type, with
+ * probability proportional to its frequency, in O(1) per draw however many successors
+ * there are.
+ *
+ * Every (vertex, type) group of successors gets a table, but groups holding the same
+ * ids share one: in an implicit graph all words of a type serve the same array slice,
+ * and in a CSR graph they usually list the same successors in the same order. Building
+ * is one pass over the edges (hashing each group once), and memory grows with the
+ * distinct groups rather than with the edges.
+ */
+public final class AliasTables {
+    private final long typeMask;
+    private final int typeCount;
+    private final int[] tableOf;
+    private final int[] starts;
+    private final long[] weights;
+    private final int[] ids;
+    private final int[] thresholds;
+    private final int[] aliases;
+
+    /**
+     * @param graph Graph whose successors are drawn; must not change afterwards
+     */
+    public AliasTables(WordGraph graph) {
+        // Tables are indexed by the type's rank among the graph's types, as in CsrWordGraph
+        typeMask = graph.getTypeMask();
+        typeCount = Long.bitCount(typeMask);
+        tableOf = new int[WordTypes.groupCount(graph.size(), typeMask)];
+        Arrays.fill(tableOf, -1);
+
+        HashMap<RunKey, Integer> bySlice = new HashMap<>();
+        HashMap<RunKey, Integer> byContent = new HashMap<>();
+        int[] tableStarts = new int[16];
+        long[] tableWeights = new long[16];
+        int[] flatIds = new int[16];
+        int[] flatThresholds = new int[16];
+        int[] flatAliases = new int[16];
+        int tables = 0;
+        int size = 0;
+        double[] scaled = new double[16];
+        int[] small = new int[16];
+        int[] large = new int[16];
+        SuccessorRun run = new SuccessorRun();
+
+        for (int v = 0; v < graph.size(); v++) {
+            for (int type = 0; type < WordTypes.MAX_TYPES; type++) {
+                if (!WordTypes.contains(typeMask, type)) {
+                    continue;
+                }
+                graph.successors(v, type, run);
+                int n = run.size();
+                if (n == 0) {
+                    continue;
+                }
+                // Same slice of the same array first, which is free, then the same ids anywhere
+                RunKey slice = RunKey.sameSlice(run);
+                Integer table = bySlice.get(slice);
+                if (table == null) {
+                    RunKey content = RunKey.sameIds(run);
+                    table = byContent.get(content);
+                    if (table == null) {
+                        table = tables;
+                        if (tables + 1 >= tableStarts.length) {
+                            tableStarts = Arrays.copyOf(tableStarts, tableStarts.length * 2);
+                            tableWeights = Arrays.copyOf(tableWeights, tableWeights.length * 2);
+                        }
+                        if (size + n > flatIds.length) {
+                            int capacity = Math.max(size + n, flatIds.length * 2);
+                            flatIds = Arrays.copyOf(flatIds, capacity);
+                            flatThresholds = Arrays.copyOf(flatThresholds, capacity);
+                            flatAliases = Arrays.copyOf(flatAliases, capacity);
+                        }
+                        if (scaled.length < n) {
+                            scaled = new double[Math.max(n, scaled.length * 2)];
+                            small = new int[scaled.length];
+                            large = new int[scaled.length];
+                        }
+
+                        long total = 0;
+                        for (int i = 0; i < n; i++) {
+                            flatIds[size + i] = run.get(i);
+                            total += Math.max(0, graph.getFrequency(run.get(i)));
+                        }
+                        for (int i = 0; i < n; i++) {
+                            // A group whose frequencies are all 0 is drawn uniformly
+                            scaled[i] = (total == 0) ? 1 : (double) Math.max(0, graph.getFrequency(run.get(i))) * n / total;
+                        }
+                        fill(scaled, n, small, large, flatThresholds, flatAliases, size);
+
+                        tableStarts[tables] = size;
+                        tableWeights[tables] = total;
+                        size += n;
+                        tableStarts[++tables] = size;
+                        byContent.put(content, table);
+                    }
+                    bySlice.put(slice, table);
+                }
+                tableOf[v * typeCount + WordTypes.indexIn(typeMask, type)] = table;
+            }
+        }
+
+        starts = Arrays.copyOf(tableStarts, tables + 1);
+        weights = Arrays.copyOf(tableWeights, tables);
+        ids = Arrays.copyOf(flatIds, size);
+        thresholds = Arrays.copyOf(flatThresholds, size);
+        aliases = Arrays.copyOf(flatAliases, size);
+    }
+
+    /**
+     * Vose's method: pairs every column holding less than its share with one holding more,
+     * so each column is split between at most two ids.
+     *
+     * @param scaled Probability of each id times n
+     * @param offset Where the table starts in thresholds and aliases
+     */
+    private static void fill(double[] scaled, int n, int[] small, int[] large, int[] thresholds, int[] aliases, int offset) {
+        int smallCount = 0;
+        int largeCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (scaled[i] < 1) {
+                small[smallCount++] = i;
+            } else {
+                large[largeCount++] = i;
+            }
+        }
+        while (smallCount > 0 && largeCount > 0) {
+            int less = small[--smallCount];
+            int more = large[largeCount - 1];
+            thresholds[offset + less] = (int) (scaled[less] * (1L << 31));
+            aliases[offset + less] = offset + more;
+            scaled[more] -= 1 - scaled[less];
+            if (scaled[more] < 1) {
+                largeCount--;
+                small[smallCount++] = more;
+            }
+        }
+        // What is left holds its whole column (up to rounding)
+        while (largeCount > 0) {
+            int full = large[--largeCount];
+            thresholds[offset + full] = Integer.MAX_VALUE;
+            aliases[offset + full] = offset + full;
+        }
+        while (smallCount > 0) {
+            int full = small[--smallCount];
+            thresholds[offset + full] = Integer.MAX_VALUE;
+            aliases[offset + full] = offset + full;
+        }
+    }
+
+    /**
+     * Draws a successor of the vertex with the given type, with probability proportional to its frequency.
+     *
+     * @return Its id, or -1 if the vertex has no successor of that type
+     */
+    public int sample(int id, int type, SplittableRandom random) {
+        int table = tableOf(id, type);
+        if (table < 0) {
+            return -1;
+        }
+        long r = random.nextLong();
+        int start = starts[table];
+        int column = start + (int) (((r >>> 32) * (starts[table + 1] - start)) >>> 32);
+        return ((int) r & Integer.MAX_VALUE) < thresholds[column] ? ids[column] : ids[aliases[column]];
+    }
+
+    /**
+     * @return Total frequency of the successors of the vertex with the given type (0 if there are none)
+     */
+    public long weight(int id, int type) {
+        int table = tableOf(id, type);
+        return (table < 0) ? 0 : weights[table];
+    }
+
+    private int tableOf(int id, int type) {
+        return WordTypes.contains(typeMask, type) ? tableOf[id * typeCount + WordTypes.indexIn(typeMask, type)] : -1;
+    }
+
+    /**
+     * @return Number of distinct tables
+     */
+    public int tableCount() {
+        return weights.length;
+    }
+}
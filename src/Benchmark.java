@@ -0,0 +1,156 @@
+import java.util.Random;
+
+/**
+ * Compares the search modes on random prompts made from lexicon words.
+ *
+ * For each mode, prints the average time per reply and the average score per word,
+ * so a deployment can trade latency for quality. Also compares getting several
+ * alternative replies from one top-N search against as many separate generations (it
+ * is only competitive with BEST_PATH ones).
+ * First of all, prints how much heap the built graph takes, on the heap and with its
+ * edges off it.
+ *
+ * Usage: java Benchmark [lexicon.csv] [prompts]
+ */
+public class Benchmark {
+
+    public static void main(String[] args) {
+        String fileName = (args.length > 0) ? args[0] : Driver.FILENAME;
+        int promptCount = (args.length > 1) ? Integer.parseInt(args[1]) : 20000;
+        measureHeap(fileName);
+
+        Chatbot chat = new Chatbot();
+        chat.buildWordGraph(chat.buildDictionary(fileName));
+        GraphSnapshot snapshot = chat.getSnapshot();
+        WordGraph graph = snapshot.getGraph();
+        StdOut.printf("%d words, %d edges, %d prompts%n", graph.size(), graph.edgeCount(), promptCount);
+
+        String[] prompts = randomPrompts(graph, promptCount, new Random(42));
+        for (SearchMode mode : SearchMode.values()) {
+            run(snapshot, prompts, mode);  // warm-up
+            run(snapshot, prompts, mode);
+        }
+        for (int i = 0; i < 2; i++) {
+            runTop(snapshot, prompts, 5);
+        }
+        for (SearchMode mode : SearchMode.values()) {
+            runAllStructures(snapshot, prompts, mode, 1_000_000);  // warm-up
+            runAllStructures(snapshot, prompts, mode, 1_000_000);
+        }
+    }
+
+    /**
+     * Prints the heap taken by a built graph (with its snapshot), after a full GC, and again
+     * once the graph has been moved off the heap with Chatbot.moveGraphOffHeap(). What is
+     * left then grows with the words (the lexicon index and alias tables), not the edges.
+     */
+    private static void measureHeap(String fileName) {
+        long before = usedHeap();
+        Chatbot chat = new Chatbot();
+        chat.buildWordGraph(chat.buildDictionary(fileName));
+        long onHeap = usedHeap() - before;
+        chat.moveGraphOffHeap();
+        long offHeap = usedHeap() - before;
+        WordGraph graph = chat.getWordGraph();
+        StdOut.printf("Heap: %.1f MB with the graph on the heap, %.1f MB with its edges off the heap (%d words, %d edges)%n",
+            onHeap / 1e6, offHeap / 1e6, graph.size(), graph.edgeCount());
+    }
+
+    /**
+     * @return Bytes of heap in use after a full GC
+     */
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // A few rounds, so objects freed by finalization or reference processing are gone too
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    private static void run(GraphSnapshot snapshot, String[] prompts, SearchMode mode) {
+        ChatSession session = new ChatSession();
+        double totalScore = 0;
+        long start = System.nanoTime();
+        for (String prompt : prompts) {
+            boolean hasThePrefix = snapshot.boostWords(prompt, session);
+            snapshot.generate(prompt, hasThePrefix, session, mode);
+            totalScore += wordScore(session);
+            session.boosts.clear();
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / prompts.length;
+        StdOut.printf("%-10s %8.2f us/reply  score/word %.2f%n", mode, micros, totalScore / prompts.length);
+    }
+
+    /**
+     * Same as run(), but tries every structure per reply (within the given budget).
+     */
+    private static void runAllStructures(GraphSnapshot snapshot, String[] prompts, SearchMode mode, long budgetNanos) {
+        ChatSession session = new ChatSession();
+        double totalScore = 0;
+        long start = System.nanoTime();
+        for (String prompt : prompts) {
+            boolean hasThePrefix = snapshot.boostWords(prompt, session);
+            snapshot.generateAllStructures(prompt, hasThePrefix, session, mode, budgetNanos);
+            totalScore += wordScore(session);
+            session.boosts.clear();
+        }
+        double micros = (System.nanoTime() - start) / 1000.0 / prompts.length;
+        StdOut.printf("ALL/%-6s %8.2f us/reply  score/word %.2f%n", mode, micros, totalScore / prompts.length);
+    }
+
+    /**
+     * @return Average score of the words after the first one in the last generated sentence
+     */
+    private static double wordScore(ChatSession session) {
+        return (session.getLastLength() > 1) ? (double) session.getLastScore() / (session.getLastLength() - 1) : 0;
+    }
+
+    /**
+     * Times generateTop(n) against n generations (in each mode) per prompt, where the i-th
+     * generation uses the prompt followed by the prompt i places after it, so each one differs.
+     */
+    private static void runTop(GraphSnapshot snapshot, String[] prompts, int n) {
+        ChatSession session = new ChatSession();
+        long start = System.nanoTime();
+        for (String prompt : prompts) {
+            boolean hasThePrefix = snapshot.boostWords(prompt, session);
+            snapshot.generateTop(prompt, hasThePrefix, session, n);
+            session.boosts.clear();
+        }
+        StdOut.printf("TOP_%-6d %8.2f us/request", n, (System.nanoTime() - start) / 1000.0 / prompts.length);
+
+        for (SearchMode mode : SearchMode.values()) {
+            start = System.nanoTime();
+            for (int p = 0; p < prompts.length; p++) {
+                for (int i = 0; i < n; i++) {
+                    String prompt = prompts[p] + prompts[(p + i) % prompts.length];
+                    boolean hasThePrefix = snapshot.boostWords(prompt, session);
+                    snapshot.generate(prompt, hasThePrefix, session, mode);
+                    session.boosts.clear();
+                }
+            }
+            StdOut.printf("  %d x %s: %.2f us", n, mode, (System.nanoTime() - start) / 1000.0 / prompts.length);
+        }
+        StdOut.println();
+    }
+
+    /**
+     * @return Prompts of 1 to 6 words, each a random lexicon word or (one time in four) "the"
+     */
+    static String[] randomPrompts(WordGraph graph, int count, Random random) {
+        String[] prompts = new String[count];
+        StringBuilder prompt = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            prompt.setLength(0);
+            int words = 1 + random.nextInt(6);
+            for (int j = 0; j < words; j++) {
+                prompt.append(random.nextInt(4) == 0 ? "the" : graph.getText(random.nextInt(graph.size()))).append(' ');
+            }
+            prompts[i] = prompt.toString();
+        }
+        return prompts;
+    }
+}
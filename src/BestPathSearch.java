@@ -0,0 +1,448 @@
+import java.util.Arrays;
+
+/**
+ * Finds the highest-scoring sentences allowed by a SentenceLattice.
+ *
+ * The lattice lays the graph out as a DAG: node 0 holds the start word and each other
+ * node the words of its in-edges' types reachable from the words of their sources. A
+ * word's score only depends on the word before it (frequency + boost + hash variation of
+ * that edge), so the best paths are found Viterbi-style: each node keeps, per word, the k
+ * best scores of paths ending there and where each came from. That is O(edges x graph
+ * edges x k) in the worst case. Patterns sharing states are searched once, and one search
+ * returns the k best distinct sentences over every accepting node.
+ *
+ * To avoid visiting every edge, each accepting node first gets k complete paths (the
+ * greedy sentence ending there with its k best last words), and every partial path is
+ * dropped once it could not beat the worst of them at any accepting node after it, even
+ * if each remaining word scored as high as its type allows. Words are expanded from best
+ * to worst and successors come ranked by frequency, so both loops stop early. The result
+ * is still exact.
+ *
+ * Holds reusable per-node buffers, so one instance belongs to one ChatSession.
+ */
+public class BestPathSearch {
+    /** Deadline meaning "never give up". */
+    static final long NO_DEADLINE = Long.MAX_VALUE;
+    /** Bound of a node without a known complete path after it: nothing before it is pruned. */
+    private static final long UNBOUNDED = Long.MIN_VALUE / 4;
+
+    private int k;
+    private SentenceLattice lattice;
+    private int[][] nodeIds = new int[0][];
+    private int[][] nodeCounts = new int[0][];
+    private int[][] nodeScores = new int[0][];
+    private int[][] nodeFrom = new int[0][];
+    private int[][] nodeFromNodes = new int[0][];
+    private int[] nodeSizes = new int[0];
+    private long[] needed = new long[0];
+    private int[] boostedBounds = new int[0];
+    private long[] bestCases = new long[0];
+    private long[] order = new long[16];
+    private int[] slots = new int[0];
+    private int[] topScores = new int[1];
+
+    private int[] resultNodes = new int[0];
+    private int[] resultEntries = new int[0];
+    private int resultCount;
+
+    /**
+     * Finds the k best sentences of the lattice, ranked by GraphSnapshot.isBetter(). If no
+     * path reaches an accepting node, the best of the longest ones are found. Read them back
+     * with resultCount(), resultScore() and copyPath().
+     *
+     * @param snapshot Graph to search
+     * @param lattice Sentences allowed
+     * @param greedy Greedy walk over the same lattice, used to bound the search
+     * @param seed Sentence seed for the hash variation (see GraphSnapshot.sentenceSeed())
+     * @param k Number of sentences wanted
+     * @param session Session whose boosts are applied
+     * @param deadline System.nanoTime() after which to give up, or NO_DEADLINE
+     * @return false if the deadline passed first (and there are no results)
+     */
+    boolean search(GraphSnapshot snapshot, SentenceLattice lattice, GreedyWalk greedy, long seed, int k,
+            ChatSession session, long deadline) {
+        WordGraph graph = snapshot.getGraph();
+        BigramModel bigrams = snapshot.getBigrams();
+        BoostOverlay boosts = session.boosts;
+        SuccessorRun run = session.run;
+        this.k = k;
+        this.lattice = lattice;
+        ensureCapacity(lattice.size(), graph.size());
+
+        for (int type = 0; type < bestCases.length; type++) {
+            bestCases[type] = Long.MIN_VALUE;
+        }
+        // needed[node]: lowest score a path ending at the node must have to matter to any accepting node after it
+        for (int node = 0; node < lattice.size(); node++) {
+            needed[node] = Long.MAX_VALUE;
+            if (lattice.isAccepting(node)) {
+                int lowerBound = lowerBound(snapshot, graph, node, greedy, seed, boosts, run);
+                needed[node] = (lowerBound == Integer.MIN_VALUE) ? UNBOUNDED : lowerBound;
+            }
+        }
+        for (int node = lattice.size() - 1; node > 0; node--) {
+            if (needed[node] == Long.MAX_VALUE) {
+                continue;
+            }
+            for (int e = lattice.edgeStart(node); e < lattice.edgeStart(node + 1); e++) {
+                int parent = lattice.edgeFrom(e);
+                long bestCase = bestCase(snapshot, graph, boosts, lattice.edgeType(e));
+                needed[parent] = Math.min(needed[parent], needed[node] - bestCase);
+            }
+        }
+
+        nodeIds[0][0] = greedy.id(0);
+        nodeCounts[0][0] = 1;
+        nodeScores[0][0] = 0;
+        nodeFrom[0][0] = -1;
+        nodeFromNodes[0][0] = -1;
+        nodeSizes[0] = 1;
+        int expanded = 0;
+
+        for (int node = 1; node < lattice.size(); node++) {
+            nodeSizes[node] = 0;
+            if (needed[node] == Long.MAX_VALUE) {
+                continue;
+            }
+            boolean timedOut = false;
+
+            for (int e = lattice.edgeStart(node); e < lattice.edgeStart(node + 1) && !timedOut; e++) {
+                int parent = lattice.edgeFrom(e);
+                if (nodeSizes[parent] == 0) {
+                    continue;
+                }
+                int type = lattice.edgeType(e);
+                long bestCase = bestCase(snapshot, graph, boosts, type);
+                int boostedBound = boostedBounds[type];
+                int[] fromScores = nodeScores[parent];
+                int fromSlots = sortSlots(parent);
+
+                for (int o = 0; o < fromSlots; o++) {
+                    if ((expanded++ & 63) == 0 && deadline != NO_DEADLINE && System.nanoTime() - deadline > 0) {
+                        timedOut = true;
+                        break;
+                    }
+                    int fromSlot = (int) order[o];
+                    int fromId = nodeIds[parent][fromSlot];
+                    int base = fromSlot * k;
+                    int count = nodeCounts[parent][fromSlot];
+                    if (fromScores[base] + bestCase < needed[node]) {
+                        break;
+                    }
+                    // Lowest edge score that can still lead to a path that matters
+                    long neededEdge = needed[node] - fromScores[base] - bigrams.maxWeight(fromId);
+
+                    graph.successors(fromId, type, run);
+                    for (int j = 0; j < run.size(); j++) {
+                        int id = run.get(j);
+                        int frequency = graph.getFrequency(id);
+                        if (frequency + GraphSnapshot.MAX_HASH_VARIATION < neededEdge && boostedBound < neededEdge) {
+                            break;
+                        }
+                        int edgeScore = frequency + boosts.get(id) + GraphSnapshot.hashVariation(seed, fromId, id)
+                            + bigrams.weight(fromId, id);
+                        // The paths reaching fromId are sorted best first
+                        for (int r = 0; r < count; r++) {
+                            int pathScore = fromScores[base + r] + edgeScore;
+                            if (pathScore < needed[node]) {
+                                break;
+                            }
+                            relax(node, id, pathScore, parent, base + r);
+                        }
+                    }
+                }
+            }
+
+            for (int j = 0; j < nodeSizes[node]; j++) {
+                slots[nodeIds[node][j]] = -1;
+            }
+            if (timedOut) {
+                return false;
+            }
+        }
+
+        collectResults();
+        return true;
+    }
+
+    /**
+     * @return Number of sentences found by the last search(), best first
+     */
+    int resultCount() {
+        return resultCount;
+    }
+
+    /**
+     * @return Score of the given sentence
+     */
+    int resultScore(int result) {
+        return nodeScores[resultNodes[result]][resultEntries[result]];
+    }
+
+    /**
+     * @return Number of words in the given sentence
+     */
+    int resultLength(int result) {
+        return lattice.depth(resultNodes[result]) + 1;
+    }
+
+    /**
+     * @return Whether the sentences found follow a pattern to its end
+     */
+    boolean isComplete() {
+        return resultCount > 0 && lattice.isAccepting(resultNodes[0]);
+    }
+
+    /**
+     * Writes the given sentence into path.
+     *
+     * @return Its number of words
+     */
+    int copyPath(int result, int[] path) {
+        int node = resultNodes[result];
+        int entry = resultEntries[result];
+        int length = lattice.depth(node) + 1;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = nodeIds[node][entry / k];
+            int from = nodeFromNodes[node][entry];
+            entry = nodeFrom[node][entry];
+            node = from;
+        }
+        return length;
+    }
+
+    /**
+     * Ranks the paths ending at accepting nodes (or, if there are none, at the deepest nodes
+     * reached) and keeps the k best.
+     */
+    private void collectResults() {
+        boolean complete = false;
+        int deepest = 0;
+        for (int node = 0; node < lattice.size(); node++) {
+            if (nodeSizes[node] > 0) {
+                complete |= lattice.isAccepting(node);
+                deepest = Math.max(deepest, lattice.depth(node));
+            }
+        }
+        resultCount = 0;
+        for (int node = 0; node < lattice.size(); node++) {
+            if (nodeSizes[node] == 0 || (complete ? !lattice.isAccepting(node) : lattice.depth(node) != deepest)) {
+                continue;
+            }
+            int entries = sortEntries(node);
+            int length = lattice.depth(node) + 1;
+            // Entries come best first, so each one only has to be inserted among the results
+            for (int o = 0; o < entries; o++) {
+                int entry = (int) order[o];
+                int score = nodeScores[node][entry];
+                int i = Math.min(resultCount, k - 1);
+                if (resultCount == k && !isBetterResult(score, length, k - 1)) {
+                    break;
+                }
+                while (i > 0 && isBetterResult(score, length, i - 1)) {
+                    resultNodes[i] = resultNodes[i - 1];
+                    resultEntries[i] = resultEntries[i - 1];
+                    i--;
+                }
+                resultNodes[i] = node;
+                resultEntries[i] = entry;
+                resultCount = Math.min(resultCount + 1, k);
+            }
+        }
+    }
+
+    /**
+     * @return Whether a sentence with the given score and length ranks above the given result
+     */
+    private boolean isBetterResult(int score, int length, int result) {
+        return GraphSnapshot.isBetter(true, score, length, true, resultScore(result), resultLength(result));
+    }
+
+    /**
+     * @return Highest score a word of the given type can get, with the session's boosts and any transition weight
+     */
+    private long bestCase(GraphSnapshot snapshot, WordGraph graph, BoostOverlay boosts, int type) {
+        if (bestCases[type] == Long.MIN_VALUE) {
+            int boosted = boosts.maxBoostedFrequency(graph, type);
+            boostedBounds[type] = (boosted == Integer.MIN_VALUE) ? Integer.MIN_VALUE : boosted + GraphSnapshot.MAX_HASH_VARIATION;
+            bestCases[type] = Math.max((long) snapshot.maxFrequency(type) + GraphSnapshot.MAX_HASH_VARIATION, boostedBounds[type])
+                + snapshot.getBigrams().maxWeightOfType(type);
+        }
+        return bestCases[type];
+    }
+
+    /**
+     * Scores k complete paths ending at the accepting node: the greedy sentence ending there
+     * with each of the k best words for its last position.
+     *
+     * @return Score of the worst of them, or Integer.MIN_VALUE if there are fewer than k
+     */
+    private int lowerBound(GraphSnapshot snapshot, WordGraph graph, int node, GreedyWalk greedy, long seed,
+            BoostOverlay boosts, SuccessorRun run) {
+        if (node == 0) {
+            return (k == 1) ? 0 : Integer.MIN_VALUE;
+        }
+        if (greedy.id(node) < 0) {
+            return Integer.MIN_VALUE;
+        }
+        int parent = greedy.parent(node);
+        int type = lattice.edgeType(greedy.edge(node));
+        bestCase(snapshot, graph, boosts, type);
+        if (topScores.length < k) {
+            topScores = new int[k];
+        }
+        int found = 0;
+        int fromId = greedy.id(parent);
+        BigramModel bigrams = snapshot.getBigrams();
+        int maxWeight = bigrams.maxWeight(fromId);
+        graph.successors(fromId, type, run);
+        for (int i = 0; i < run.size(); i++) {
+            int id = run.get(i);
+            if (found == k && graph.getFrequency(id) + GraphSnapshot.MAX_HASH_VARIATION + maxWeight <= topScores[k - 1]
+                    && boostedBounds[type] + maxWeight <= topScores[k - 1]) {
+                break;
+            }
+            int score = graph.getFrequency(id) + boosts.get(id) + GraphSnapshot.hashVariation(seed, fromId, id)
+                + bigrams.weight(fromId, id);
+            found = insertTopScore(found, score);
+        }
+        return (found < k) ? Integer.MIN_VALUE : greedy.score(parent) + topScores[k - 1];
+    }
+
+    /**
+     * Records a path reaching the given word of the node, if it is among the k best reaching it so far.
+     */
+    private void relax(int node, int id, int pathScore, int fromNode, int from) {
+        int slot = slots[id];
+        if (slot < 0) {
+            slot = nodeSizes[node];
+            if (slot == nodeIds[node].length) {
+                nodeIds[node] = Arrays.copyOf(nodeIds[node], slot * 2);
+                nodeCounts[node] = Arrays.copyOf(nodeCounts[node], slot * 2);
+            }
+            if ((slot + 1) * k > nodeScores[node].length) {
+                nodeScores[node] = Arrays.copyOf(nodeScores[node], nodeIds[node].length * k);
+                nodeFrom[node] = Arrays.copyOf(nodeFrom[node], nodeIds[node].length * k);
+                nodeFromNodes[node] = Arrays.copyOf(nodeFromNodes[node], nodeIds[node].length * k);
+            }
+            nodeIds[node][slot] = id;
+            nodeCounts[node][slot] = 0;
+            slots[id] = slot;
+            nodeSizes[node] = slot + 1;
+        }
+
+        int[] scores = nodeScores[node];
+        int[] froms = nodeFrom[node];
+        int[] fromNodes = nodeFromNodes[node];
+        int base = slot * k;
+        int count = nodeCounts[node][slot];
+        if (count == k && pathScore <= scores[base + k - 1]) {
+            return;
+        }
+        int i = Math.min(count, k - 1);
+        while (i > 0 && scores[base + i - 1] < pathScore) {
+            scores[base + i] = scores[base + i - 1];
+            froms[base + i] = froms[base + i - 1];
+            fromNodes[base + i] = fromNodes[base + i - 1];
+            i--;
+        }
+        scores[base + i] = pathScore;
+        froms[base + i] = from;
+        fromNodes[base + i] = fromNode;
+        nodeCounts[node][slot] = Math.min(count + 1, k);
+    }
+
+    /**
+     * Inserts a score into the descending list topScores[0, count), keeping at most k.
+     *
+     * @return The new count
+     */
+    private int insertTopScore(int count, int score) {
+        if (count == k && score <= topScores[k - 1]) {
+            return count;
+        }
+        int i = Math.min(count, k - 1);
+        while (i > 0 && topScores[i - 1] < score) {
+            topScores[i] = topScores[i - 1];
+            i--;
+        }
+        topScores[i] = score;
+        return Math.min(count + 1, k);
+    }
+
+    /**
+     * Fills order with the slots of the node, best first by the best path reaching each (ties in slot order).
+     *
+     * @return Number of slots
+     */
+    private int sortSlots(int node) {
+        int size = nodeSizes[node];
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+        }
+        for (int slot = 0; slot < size; slot++) {
+            order[slot] = ((long) -nodeScores[node][slot * k] << 32) | slot;
+        }
+        Arrays.sort(order, 0, size);
+        return size;
+    }
+
+    /**
+     * Fills order with the entries (slot * k + rank) of the node, best score first (ties in entry order).
+     *
+     * @return Number of entries
+     */
+    private int sortEntries(int node) {
+        int size = 0;
+        for (int slot = 0; slot < nodeSizes[node]; slot++) {
+            size += nodeCounts[node][slot];
+        }
+        if (order.length < size) {
+            order = new long[Math.max(size, order.length * 2)];
+        }
+        int n = 0;
+        for (int slot = 0; slot < nodeSizes[node]; slot++) {
+            for (int r = 0; r < nodeCounts[node][slot]; r++) {
+                int entry = slot * k + r;
+                order[n++] = ((long) -nodeScores[node][entry] << 32) | entry;
+            }
+        }
+        Arrays.sort(order, 0, n);
+        return n;
+    }
+
+    private void ensureCapacity(int nodes, int vertices) {
+        if (nodeIds.length < nodes) {
+            nodeIds = Arrays.copyOf(nodeIds, nodes);
+            nodeCounts = Arrays.copyOf(nodeCounts, nodes);
+            nodeScores = Arrays.copyOf(nodeScores, nodes);
+            nodeFrom = Arrays.copyOf(nodeFrom, nodes);
+            nodeFromNodes = Arrays.copyOf(nodeFromNodes, nodes);
+            nodeSizes = new int[nodes];
+            needed = new long[nodes];
+        }
+        for (int n = 0; n < nodes; n++) {
+            if (nodeIds[n] == null) {
+                nodeIds[n] = new int[16];
+                nodeCounts[n] = new int[16];
+            }
+            if (nodeScores[n] == null || nodeScores[n].length < nodeIds[n].length * k) {
+                nodeScores[n] = new int[nodeIds[n].length * k];
+                nodeFrom[n] = new int[nodeIds[n].length * k];
+                nodeFromNodes[n] = new int[nodeIds[n].length * k];
+            }
+        }
+        if (bestCases.length < WordTypes.count()) {
+            bestCases = new long[WordTypes.count()];
+            boostedBounds = new int[WordTypes.count()];
+        }
+        if (resultNodes.length < k) {
+            resultNodes = new int[k];
+            resultEntries = new int[k];
+        }
+        if (slots.length < vertices) {
+            slots = new int[vertices];
+            Arrays.fill(slots, -1);
+        }
+    }
+}
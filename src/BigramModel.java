@@ -0,0 +1,219 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * Word transition weights learned from a text corpus (see BigramTrainer).
+ *
+ * For every word, the corpus counts of the words seen right after it are stored in
+ * arrays indexed by vertex id: the observed successors of vertex u are
+ * targets[offsets[u]] up to targets[offsets[u + 1] - 1], sorted by id, so looking up an
+ * edge is a binary search among the few successors actually seen. An edge's weight is
+ * TRANSITION_WEIGHT times its transition probability P(next word | word), and is added
+ * to the edge's score when generating.
+ *
+ * A model is tied to the graph it was trained on; saved models carry a fingerprint of
+ * the lexicon so they are never applied to a different one.
+ */
+public final class BigramModel {
+    /** Weight of a transition that always follows its word in the corpus. */
+    public static final int TRANSITION_WEIGHT = 100;
+    /** A model without any transitions: every weight is 0. */
+    public static final BigramModel NONE = new BigramModel(0, new int[1], new int[0], new long[0], new int[0]);
+
+    private static final int MAGIC = 0x42474D31;  // "BGM1"
+
+    private final long fingerprint;
+    private final int[] offsets;
+    private final int[] targets;
+    private final long[] counts;
+    private final int[] weights;
+    private final int[] maxWeights;
+    private final int[] typeMaxWeights;
+
+    private BigramModel(long fingerprint, int[] offsets, int[] targets, long[] counts, int[] typeIds) {
+        this.fingerprint = fingerprint;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.counts = counts;
+        int vertices = offsets.length - 1;
+        weights = new int[targets.length];
+        maxWeights = new int[vertices];
+        typeMaxWeights = new int[WordTypes.MAX_TYPES];
+        for (int u = 0; u < vertices; u++) {
+            long total = 0;
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                total += counts[e];
+            }
+            for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                weights[e] = (int) Math.round((double) TRANSITION_WEIGHT * counts[e] / total);
+                maxWeights[u] = Math.max(maxWeights[u], weights[e]);
+                int type = typeIds[targets[e]];
+                typeMaxWeights[type] = Math.max(typeMaxWeights[type], weights[e]);
+            }
+        }
+    }
+
+    /**
+     * Builds a model from pair counts.
+     *
+     * @param graph Graph the pairs were counted on
+     * @param keys Pairs as (from id << 32 | to id)
+     * @param values Count of each pair
+     * @param size Number of pairs
+     */
+    static BigramModel fromCounts(WordGraph graph, long[] keys, long[] values, int size) {
+        long[] sortedKeys = Arrays.copyOf(keys, size);
+        Arrays.sort(sortedKeys);
+        int[] offsets = new int[graph.size() + 1];
+        int[] targets = new int[size];
+        long[] counts = new long[size];
+        for (int i = 0; i < size; i++) {
+            // Keys are unique, so each count lands where its key was sorted to
+            counts[Arrays.binarySearch(sortedKeys, keys[i])] = values[i];
+        }
+        for (int i = 0; i < size; i++) {
+            targets[i] = (int) sortedKeys[i];
+            offsets[(int) (sortedKeys[i] >>> 32) + 1]++;
+        }
+        for (int u = 0; u < graph.size(); u++) {
+            offsets[u + 1] += offsets[u];
+        }
+        return new BigramModel(fingerprint(graph), offsets, targets, counts, typeIds(graph));
+    }
+
+    /**
+     * @return Weight of the transition from one word to the next (0 if it was never seen)
+     */
+    public int weight(int fromId, int toId) {
+        if (fromId + 1 >= offsets.length) {
+            return 0;
+        }
+        int e = Arrays.binarySearch(targets, offsets[fromId], offsets[fromId + 1], toId);
+        return (e < 0) ? 0 : weights[e];
+    }
+
+    /**
+     * @return Largest weight of any transition from the given word
+     */
+    public int maxWeight(int fromId) {
+        return (fromId < maxWeights.length) ? maxWeights[fromId] : 0;
+    }
+
+    /**
+     * @return Largest weight of any transition to a word of the given type
+     */
+    public int maxWeightOfType(int type) {
+        return typeMaxWeights[type];
+    }
+
+    /**
+     * @return Number of times the pair was seen in the corpus
+     */
+    public long count(int fromId, int toId) {
+        if (fromId + 1 >= offsets.length) {
+            return 0;
+        }
+        int e = Arrays.binarySearch(targets, offsets[fromId], offsets[fromId + 1], toId);
+        return (e < 0) ? 0 : counts[e];
+    }
+
+    /**
+     * @return Number of distinct word pairs seen
+     */
+    public int pairCount() {
+        return targets.length;
+    }
+
+    /**
+     * @return Whether the model applies to the given graph (NONE applies to every graph)
+     */
+    public boolean matches(WordGraph graph) {
+        return this == NONE || fingerprint == fingerprint(graph);
+    }
+
+    /**
+     * Writes the pair counts to a file, along with the lexicon's fingerprint.
+     */
+    public void save(String fileName) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(Paths.get(fileName))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(offsets.length - 1);
+            out.writeLong(fingerprint);
+            out.writeInt(targets.length);
+            for (int u = 0; u + 1 < offsets.length; u++) {
+                for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                    out.writeInt(u);
+                    out.writeInt(targets[e]);
+                    out.writeLong(counts[e]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads pair counts written by save().
+     *
+     * @param graph Graph to apply them to
+     * @throws IOException If the file cannot be read or is not a saved model
+     * @throws IllegalArgumentException If the model was trained on a different lexicon
+     */
+    public static BigramModel load(String fileName, WordGraph graph) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(Paths.get(fileName))))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(fileName + " is not a bigram model");
+            }
+            int vertices = in.readInt();
+            long savedFingerprint = in.readLong();
+            if (vertices != graph.size() || savedFingerprint != fingerprint(graph)) {
+                throw new IllegalArgumentException(fileName + " was trained on a different lexicon");
+            }
+            int size = in.readInt();
+            int[] offsets = new int[vertices + 1];
+            int[] targets = new int[size];
+            long[] counts = new long[size];
+            long previous = -1;
+            for (int i = 0; i < size; i++) {
+                int from = in.readInt();
+                targets[i] = in.readInt();
+                counts[i] = in.readLong();
+                long key = ((long) from << 32) | targets[i];
+                if (from < 0 || from >= vertices || targets[i] < 0 || targets[i] >= vertices || key <= previous) {
+                    throw new IOException(fileName + ": bad pair " + from + " -> " + targets[i]);
+                }
+                previous = key;
+                offsets[from + 1]++;
+            }
+            for (int u = 0; u < vertices; u++) {
+                offsets[u + 1] += offsets[u];
+            }
+            return new BigramModel(savedFingerprint, offsets, targets, counts, typeIds(graph));
+        }
+    }
+
+    /**
+     * @return Hash of the text and type of every vertex, in id order
+     */
+    static long fingerprint(WordGraph graph) {
+        WordArena texts = graph.getTexts();
+        long h = graph.size();
+        for (int v = 0; v < graph.size(); v++) {
+            h = h * 0x9E3779B97F4A7C15L + texts.hash(v);
+            h = h * 0x9E3779B97F4A7C15L + WordTypes.name(graph.getTypeId(v)).hashCode();
+        }
+        return h;
+    }
+
+    private static int[] typeIds(WordGraph graph) {
+        int[] typeIds = new int[graph.size()];
+        for (int v = 0; v < typeIds.length; v++) {
+            typeIds[v] = graph.getTypeId(v);
+        }
+        return typeIds;
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Learns a BigramModel by counting which lexicon words follow each other in a plain-text corpus.
+ *
+ * The corpus is memory-mapped a window at a time and split into byte ranges that are
+ * counted in parallel on the common ForkJoinPool, each into its own primitive hash map
+ * counting pairs of lexicon entries. A map that grows past FLUSH_PAIRS is merged into the
+ * shared totals and emptied, so memory stays bounded by the number of distinct pairs,
+ * however big the corpus.
+ *
+ * Tokens are runs of ASCII letters and apostrophes, looked up in the LexiconIndex without
+ * case. Two words only count as a pair if just whitespace separates them, so punctuation,
+ * digits and unknown words break the chain. Once the corpus is read, each pair of texts
+ * is counted for every pair of vertices with those texts whose types can follow each
+ * other in the graph. Each range counts the pairs whose first token starts in it, reading
+ * on past its end for the token that completes its last pair, so every pair is counted by
+ * exactly one range and the counts do not depend on how the corpus is split.
+ */
+public final class BigramTrainer {
+    /** Bytes mapped at a time. */
+    private static final int WINDOW = 64 << 20;
+    /** Bytes mapped at a time past the end of a range, to finish its last pair. */
+    private static final int LOOKAHEAD = 4 << 10;
+    /** Smallest range worth counting on its own. */
+    private static final long MIN_RANGE = 4 << 20;
+    /** Distinct pairs a range collects before merging them into the totals. */
+    private static final int FLUSH_PAIRS = 1 << 18;
+    /** Longest token looked up; longer ones are not words of the lexicon. */
+    private static final int MAX_TOKEN = 64;
+
+    private final WordGraph graph;
+    private final LexiconIndex lexicon;
+    private final PairCounts totals = new PairCounts();
+
+    private BigramTrainer(WordGraph graph, LexiconIndex lexicon) {
+        this.graph = graph;
+        this.lexicon = lexicon;
+    }
+
+    /**
+     * Counts the word pairs of a corpus file, using every core.
+     *
+     * @param fileName Plain-text corpus (ASCII or UTF-8)
+     * @param snapshot Graph (and lexicon index) to count the pairs of
+     * @return The learned model
+     * @throws IOException If the corpus cannot be read
+     */
+    public static BigramModel train(String fileName, GraphSnapshot snapshot) throws IOException {
+        long size = Files.size(Paths.get(fileName));
+        int ranges = (int) Math.max(1, Math.min(size / MIN_RANGE, Runtime.getRuntime().availableProcessors() * 4L));
+        return train(fileName, snapshot, ranges);
+    }
+
+    /**
+     * Same as train(fileName, snapshot), with the corpus split into the given number of ranges.
+     */
+    static BigramModel train(String fileName, GraphSnapshot snapshot, int ranges) throws IOException {
+        BigramTrainer trainer = new BigramTrainer(snapshot.getGraph(), snapshot.getLexicon());
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            IOException[] failure = new IOException[1];
+            IntStream.range(0, ranges).parallel().forEach(r -> {
+                try {
+                    trainer.count(channel, size * r / ranges, size * (r + 1) / ranges, size);
+                } catch (IOException e) {
+                    synchronized (failure) {
+                        failure[0] = e;
+                    }
+                }
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        PairCounts vertexPairs = trainer.toVertexPairs();
+        return BigramModel.fromCounts(trainer.graph, vertexPairs.keys(), vertexPairs.values(), vertexPairs.size());
+    }
+
+    /**
+     * Counts the pairs whose first token starts in [start, end). A token cut by start belongs
+     * to the range before; the token after the last one starting before end is read from
+     * past end, since it completes that token's pair.
+     */
+    private void count(FileChannel channel, long start, long end, long size) throws IOException {
+        PairCounts local = new PairCounts();
+        char[] token = new char[MAX_TOKEN];
+        CharBuffer tokenView = CharBuffer.wrap(token);
+        int length = 0;
+        boolean ascii = true;
+        boolean lookahead = false;
+        int previous = -1;
+        // A token cut by the range's start belongs to the range before
+        boolean skipping = start > 0 && isTokenByte(byteAt(channel, start - 1));
+
+        long windowStart = start;
+        scan:
+        while (windowStart < size) {
+            // The whole rest of the range, or a little at a time past its end
+            int windowSize = (int) Math.min(Math.min(WINDOW, size - windowStart), Math.max(end - windowStart, 0) + LOOKAHEAD);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+            for (int i = 0; i < windowSize; i++) {
+                byte b = window.get(i);
+                if (isTokenByte(b)) {
+                    if (skipping) {
+                        continue;
+                    }
+                    if (length == 0 && !lookahead && windowStart + i >= end) {
+                        lookahead = true;
+                    }
+                    if (b < 0 || length == MAX_TOKEN) {
+                        ascii = false;
+                    } else {
+                        token[length] = (char) ((b >= 'A' && b <= 'Z') ? b + ('a' - 'A') : b);
+                    }
+                    length++;
+                    continue;
+                }
+
+                skipping = false;
+                if (length > 0) {
+                    int entry = ascii ? find(tokenView, Math.min(length, MAX_TOKEN)) : -1;
+                    if (previous >= 0 && entry >= 0) {
+                        countPair(previous, entry, local);
+                    }
+                    previous = entry;
+                    length = 0;
+                    ascii = true;
+                    if (lookahead) {
+                        break scan;
+                    }
+                }
+                if (b != ' ' && b != '\n' && b != '\r' && b != '\t') {
+                    previous = -1;
+                }
+                if (previous < 0 && windowStart + i >= end) {
+                    break scan;
+                }
+            }
+            windowStart += windowSize;
+        }
+        if (length > 0 && ascii && previous >= 0) {
+            int entry = find(tokenView, length);
+            if (entry >= 0) {
+                countPair(previous, entry, local);
+            }
+        }
+        merge(local);
+    }
+
+    /**
+     * @return Lexicon entry of the token without its leading and trailing apostrophes, or -1
+     */
+    private int find(CharBuffer token, int length) {
+        int from = 0;
+        while (from < length && token.get(from) == '\'') {
+            from++;
+        }
+        while (length > from && token.get(length - 1) == '\'') {
+            length--;
+        }
+        return (from < length) ? lexicon.find(token, from, length) : -1;
+    }
+
+    private void countPair(int fromEntry, int toEntry, PairCounts local) {
+        local.add(((long) fromEntry << 32) | toEntry, 1);
+        if (local.size() >= FLUSH_PAIRS) {
+            merge(local);
+        }
+    }
+
+    /**
+     * Turns the counted pairs of lexicon entries into pairs of vertices: every pair of
+     * vertices with the two texts whose types can follow each other gets the count.
+     */
+    private PairCounts toVertexPairs() {
+        PairCounts vertexPairs = new PairCounts();
+        SuccessorRun run = new SuccessorRun();
+        long[] keys = totals.keys();
+        long[] values = totals.values();
+        for (int p = 0; p < keys.length; p++) {
+            int fromEntry = (int) (keys[p] >>> 32);
+            int toEntry = (int) keys[p];
+            for (int i = 0; i < lexicon.size(fromEntry); i++) {
+                int from = lexicon.get(fromEntry, i);
+                for (int j = 0; j < lexicon.size(toEntry); j++) {
+                    int to = lexicon.get(toEntry, j);
+                    if (graph.successors(from, graph.getTypeId(to), run).size() > 0) {
+                        vertexPairs.add(((long) from << 32) | to, values[p]);
+                    }
+                }
+            }
+        }
+        return vertexPairs;
+    }
+
+    private void merge(PairCounts local) {
+        synchronized (totals) {
+            totals.addAll(local);
+        }
+        local.clear();
+    }
+
+    private static byte byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer oneByte = ByteBuffer.allocate(1);
+        channel.read(oneByte, position);
+        return oneByte.get(0);
+    }
+
+    /**
+     * Letters, apostrophes, and any byte of a non-ASCII character (so such words are not
+     * split into ASCII pieces that might look like other words).
+     */
+    private static boolean isTokenByte(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '\'' || b < 0;
+    }
+
+    /**
+     * Open-addressing hash map from a (from, to) pair, packed in a long, to its count.
+     */
+    private static final class PairCounts {
+        private static final long EMPTY = -1;
+
+        private long[] keys = new long[64];
+        private long[] values = new long[64];
+        private int size;
+
+        PairCounts() {
+            Arrays.fill(keys, EMPTY);
+        }
+
+        void add(long key, long count) {
+            int mask = keys.length - 1;
+            int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    values[slot] = count;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] += count;
+        }
+
+        void addAll(PairCounts other) {
+            for (int i = 0; i < other.keys.length; i++) {
+                if (other.keys[i] != EMPTY) {
+                    add(other.keys[i], other.values[i]);
+                }
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return The keys, packed into an array of size() entries
+         */
+        long[] keys() {
+            long[] packed = new long[size];
+            for (int i = 0, n = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    packed[n++] = keys[i];
+                }
+            }
+            return packed;
+        }
+
+        /**
+         * @return The counts, in the same order as keys()
+         */
+        long[] values() {
+            long[] packed = new long[size];
+            for (int i = 0, n = 0; i < keys.length; i++) {
+                if (keys[i] != EMPTY) {
+                    packed[n++] = values[i];
+                }
+            }
+            return packed;
+        }
+
+        void clear() {
+            if (size > 0) {
+                Arrays.fill(keys, EMPTY);
+                Arrays.fill(values, 0);
+                size = 0;
+            }
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldValues = values;
+            keys = new long[oldKeys.length * 2];
+            values = new long[oldKeys.length * 2];
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    add(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+    }
+}
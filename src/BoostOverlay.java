@@ -0,0 +1,226 @@
+import java.util.Arrays;
+
+/**
+ * Frequency boosts of a conversation, kept apart from the (shared, unchanging) graph.
+ *
+ * A small open-addressing map from vertex id to boost amount, where every entry is stamped
+ * with the message (epoch) it was last boosted in. endMessage() and clear() only move on to
+ * the next epoch, which makes every older entry count as gone without touching the table,
+ * so the cost per message does not depend on the vocabulary or on how many words were
+ * boosted. With a decay set (see setDecay()), boosts of earlier messages keep counting,
+ * scaled down by decay^age, which gives the conversation a fading memory of what was said.
+ */
+public class BoostOverlay {
+    /** Fraction of its amount below which a decaying boost is forgotten. */
+    private static final double FORGET_BELOW = 0.01;
+    private static final int EMPTY = -1;
+
+    private int[] keys = new int[16];
+    private int[] values = new int[16];
+    private int[] stamps = new int[16];
+    private int[] order = new int[8];
+    private int size;
+    private int used;
+    private int epoch;
+    private int oldest;
+    private double decay;
+    private double[] decayPowers = {1};
+
+    public BoostOverlay() {
+        Arrays.fill(keys, EMPTY);
+    }
+
+    /**
+     * Adds to the boost of a word (boosts of a word mentioned twice add up).
+     */
+    public void add(int id, int amount) {
+        int slot = slotOf(id);
+        boolean listed = keys[slot] != EMPTY && stamps[slot] >= oldest;
+        if (keys[slot] == EMPTY) {
+            if ((used + 1) * 2 > keys.length) {
+                rehash();
+                slot = slotOf(id);
+            }
+            keys[slot] = id;
+            used++;
+        }
+        values[slot] = (listed ? valueAt(slot) : 0) + amount;
+        stamps[slot] = epoch;
+        if (!listed) {
+            append(id);
+        }
+    }
+
+    /**
+     * @return Boost of the given word (decayed if it was boosted in an earlier message), or 0 if it is not boosted
+     */
+    public int get(int id) {
+        int slot = slotOf(id);
+        return (keys[slot] == EMPTY || stamps[slot] < oldest) ? 0 : valueAt(slot);
+    }
+
+    /**
+     * @return Number of words with a boost
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return Id of the i-th boosted word
+     */
+    public int id(int i) {
+        return order[i];
+    }
+
+    /**
+     * Upper bound on the boosted frequency of any boosted word of the given type.
+     *
+     * @return The largest base frequency plus boost among them, or Integer.MIN_VALUE if there are none
+     */
+    public int maxBoostedFrequency(WordGraph graph, int type) {
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            int id = order[i];
+            if (graph.getTypeId(id) == type) {
+                max = Math.max(max, graph.getFrequency(id) + get(id));
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Ends the current message: its boosts are dropped, or, with a decay set, start decaying.
+     */
+    public void endMessage() {
+        nextEpoch();
+        oldest = Math.max(oldest, epoch - (decayPowers.length - 1));
+        if (decayPowers.length == 1) {
+            size = 0;
+            return;
+        }
+        dropForgotten();
+    }
+
+    /**
+     * Drops every boost, including decaying ones.
+     */
+    public void clear() {
+        nextEpoch();
+        oldest = epoch;
+        size = 0;
+    }
+
+    /**
+     * Makes boosts outlive the message they were made in: after each later message they are
+     * multiplied by decay, until they fall below 1% of their amount.
+     *
+     * @param decay Between 0 (boosts last one message, the default) and 1 (exclusive)
+     */
+    public void setDecay(double decay) {
+        checkDecay(decay);
+        int maxAge = (decay == 0) ? 0 : (int) (Math.log(FORGET_BELOW) / Math.log(decay));
+        double[] powers = new double[maxAge + 1];
+        powers[0] = 1;
+        for (int age = 1; age <= maxAge; age++) {
+            powers[age] = powers[age - 1] * decay;
+        }
+        this.decay = decay;
+        decayPowers = powers;
+        oldest = Math.max(oldest, epoch - maxAge);
+        dropForgotten();
+    }
+
+    public double getDecay() {
+        return decay;
+    }
+
+    /**
+     * @throws IllegalArgumentException If the decay is not in [0, 1)
+     */
+    static void checkDecay(double decay) {
+        if (!(decay >= 0 && decay < 1)) {
+            throw new IllegalArgumentException("Decay must be in [0, 1): " + decay);
+        }
+    }
+
+    /**
+     * @return Boost of the occupied slot, scaled by its age
+     */
+    private int valueAt(int slot) {
+        int age = epoch - stamps[slot];
+        return (age == 0) ? values[slot] : (int) (values[slot] * decayPowers[age]);
+    }
+
+    /**
+     * Unlists the words whose boosts are forgotten. Only the words boosted in the last few
+     * messages are listed, so this is short.
+     */
+    private void dropForgotten() {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (stamps[slotOf(order[i])] >= oldest) {
+                order[kept++] = order[i];
+            }
+        }
+        size = kept;
+    }
+
+    private void append(int id) {
+        if (size == order.length) {
+            order = Arrays.copyOf(order, size * 2);
+        }
+        order[size++] = id;
+    }
+
+    private void nextEpoch() {
+        if (epoch == Integer.MAX_VALUE) {
+            // Stamps would wrap around: start over with an empty table
+            Arrays.fill(keys, EMPTY);
+            used = 0;
+            size = 0;
+            epoch = 0;
+            oldest = 0;
+        }
+        epoch++;
+    }
+
+    private int slotOf(int id) {
+        int mask = keys.length - 1;
+        int slot = ((id * 0x9E3779B9) >>> 16) & mask;
+        while (keys[slot] != EMPTY && keys[slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * Rebuilds the table without the entries of forgotten messages, growing it only if
+     * the remaining ones fill more than a quarter of it.
+     */
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        int[] oldStamps = stamps;
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldStamps[i] >= oldest) {
+                live++;
+            }
+        }
+        int capacity = ((live + 1) * 4 > oldKeys.length) ? oldKeys.length * 2 : oldKeys.length;
+        keys = new int[capacity];
+        values = new int[capacity];
+        stamps = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && oldStamps[i] >= oldest) {
+                int slot = slotOf(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+                stamps[slot] = oldStamps[i];
+            }
+        }
+        used = live;
+    }
+}
@@ -0,0 +1,142 @@
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe entry point for serving many conversations from one loaded lexicon.
+ *
+ * All sessions share one immutable GraphSnapshot, and each session only holds its own
+ * scratch state, so calls for different sessions run fully in parallel. Calls for the
+ * same session are serialized on that session.
+ */
+public class ChatService {
+    private final ConcurrentHashMap<String, ChatSession> sessions = new ConcurrentHashMap<>();
+    private volatile GraphSnapshot snapshot;
+    private final SearchMode mode;
+    private volatile long structureBudgetNanos = -1;
+    private volatile Long randomSeed;
+    private volatile double boostDecay;
+
+    public ChatService(GraphSnapshot snapshot) {
+        this(snapshot, SearchMode.GREEDY);
+    }
+
+    /**
+     * @param snapshot Graph to serve
+     * @param mode Search used for every reply (GREEDY for latency, BEST_PATH for quality, SAMPLE for variety)
+     */
+    public ChatService(GraphSnapshot snapshot, SearchMode mode) {
+        this.snapshot = snapshot;
+        this.mode = mode;
+    }
+
+    /**
+     * Boosts the words of the prompt, generates a reply and ends the message, which drops
+     * the boosts again (or lets them decay, see setBoostDecay()), like Driver does for its
+     * single conversation.
+     *
+     * @param sessionId Conversation the prompt belongs to; a session is created on first use
+     * @param prompt User's input message
+     * @return The generated reply
+     */
+    public String generate(String sessionId, String prompt) {
+        ChatSession session = sessions.computeIfAbsent(sessionId, this::newSession);
+        GraphSnapshot current = snapshot;
+        synchronized (session) {
+            try {
+                boolean hasThePrefix = current.boostWords(prompt, session);
+                long budget = structureBudgetNanos;
+                if (budget >= 0) {
+                    return current.generateAllStructures(prompt, hasThePrefix, session, mode, budget);
+                }
+                return current.generate(prompt, hasThePrefix, session, mode);
+            } finally {
+                session.boosts.endMessage();
+            }
+        }
+    }
+
+    /**
+     * Like generate(), but returns the n highest-scoring distinct replies, best first.
+     */
+    public ArrayList<String> generateTop(String sessionId, String prompt, int n) {
+        ChatSession session = sessions.computeIfAbsent(sessionId, this::newSession);
+        GraphSnapshot current = snapshot;
+        synchronized (session) {
+            try {
+                boolean hasThePrefix = current.boostWords(prompt, session);
+                return current.generateTop(prompt, hasThePrefix, session, n);
+            } finally {
+                session.boosts.endMessage();
+            }
+        }
+    }
+
+    private ChatSession newSession(String sessionId) {
+        ChatSession session = new ChatSession();
+        session.boosts.setDecay(boostDecay);
+        Long seed = randomSeed;
+        if (seed != null) {
+            session.setRandomSeed(seed ^ sessionId.hashCode());
+        }
+        return session;
+    }
+
+    /**
+     * Seeds the random generators (see SearchMode.SAMPLE) of sessions created from now on,
+     * each from this seed and its session id, so replays of the same conversations get the
+     * same replies whatever the thread interleaving.
+     */
+    public void setRandomSeed(long seed) {
+        randomSeed = seed;
+    }
+
+    /**
+     * Lets the boosts of sessions created from now on carry over into their next messages,
+     * multiplied by the decay after each one (see BoostOverlay.setDecay()).
+     *
+     * @param decay Between 0 (boosts last one message, the default) and 1 (exclusive)
+     */
+    public void setBoostDecay(double decay) {
+        BoostOverlay.checkDecay(decay);
+        boostDecay = decay;
+    }
+
+    /**
+     * Forgets a conversation and frees its session state.
+     */
+    public void endSession(String sessionId) {
+        sessions.remove(sessionId);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    public SearchMode getSearchMode() {
+        return mode;
+    }
+
+    /**
+     * Makes later replies try every sentence structure and keep the best-scoring sentence
+     * (see GraphSnapshot.generateAllStructures()).
+     *
+     * @param tryAll Whether to try every structure
+     * @param budgetMillis Time allowed per reply for the exact searches, in milliseconds
+     */
+    public void setTryAllStructures(boolean tryAll, double budgetMillis) {
+        structureBudgetNanos = tryAll ? (long) (budgetMillis * 1_000_000) : -1;
+    }
+
+    public GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Switches every later call to a new snapshot. Calls already running finish on the old one,
+     * and sessions drop their boosts when they move to a snapshot with another graph. Safe to
+     * call while serving, e.g. from a LexiconWatcher that reloads the lexicon.
+     */
+    public void setSnapshot(GraphSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Per-conversation state: the scratch buffers and boosts of the request being served.
+ *
+ * Everything a request mutates lives here, so any number of sessions can generate
+ * from the same GraphSnapshot at once. A session itself is not thread-safe;
+ * ChatService makes sure only one thread uses it at a time.
+ */
+public class ChatSession {
+    final PromptTokenizer tokenizer = new PromptTokenizer();
+    final BoostOverlay boosts;
+    final SuccessorRun run = new SuccessorRun();
+    final StringBuilder sentence = new StringBuilder();
+    final GreedyWalk greedy = new GreedyWalk();
+    final BestPathSearch search = new BestPathSearch();
+    SplittableRandom random = new SplittableRandom();
+    /** Graph whose vertex ids the boosts refer to. */
+    WordGraph boostedGraph;
+    int lastScore;
+    int lastLength;
+    private int[] path = new int[8];
+    private boolean[] exact = new boolean[0];
+    private ChatSession[] workers = new ChatSession[0];
+
+    public ChatSession() {
+        this(new BoostOverlay());
+    }
+
+    /**
+     * @param boosts Boosts to read, shared with the session this one works for
+     */
+    private ChatSession(BoostOverlay boosts) {
+        this.boosts = boosts;
+    }
+
+    /**
+     * @return Scratch array for the word ids of a sentence with the given number of words
+     */
+    int[] path(int length) {
+        if (path.length < length) {
+            path = new int[length];
+        }
+        return path;
+    }
+
+    /**
+     * @return Scratch array for whether each of the given number of searches finished exactly
+     */
+    boolean[] exact(int count) {
+        if (exact.length < count) {
+            exact = new boolean[count];
+        }
+        return exact;
+    }
+
+    /**
+     * Helper sessions for decoding several branches of the sentence lattice in parallel.
+     * They have their own scratch buffers but read this session's boosts, which must not
+     * change while they run.
+     *
+     * @return At least count helper sessions
+     */
+    ChatSession[] workers(int count) {
+        if (workers.length < count) {
+            ChatSession[] grown = Arrays.copyOf(workers, count);
+            for (int i = workers.length; i < count; i++) {
+                grown[i] = new ChatSession(boosts);
+            }
+            workers = grown;
+        }
+        return workers;
+    }
+
+    /**
+     * Restarts the session's random generator (used by SearchMode.SAMPLE) from the given seed,
+     * so the same prompts get the same replies again.
+     */
+    public void setRandomSeed(long seed) {
+        random = new SplittableRandom(seed);
+    }
+
+    /**
+     * @return Boosts of the request currently being served
+     */
+    public BoostOverlay getBoosts() {
+        return boosts;
+    }
+
+    /**
+     * @return Score (sum of frequency + boost + hash variation) of the last generated sentence
+     */
+    public int getLastScore() {
+        return lastScore;
+    }
+
+    /**
+     * @return Number of words of the last generated sentence (not counting a "the" prefix)
+     */
+    public int getLastLength() {
+        return lastLength;
+    }
+}
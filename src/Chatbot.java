@@ -1,5 +1,9 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This Mini-Chatbot is a simple text generator that creates sentences using graph algorithms.
@@ -8,7 +12,8 @@ import java.util.HashMap;
  * Each chain represents a valid sentence structure, and the words are connected based on their types.
  * 
  * The graph is used to store the words, with directed edges representing valid transitions between words of different types.
- * To generate a sentence, it uses Dijkstra's algorithm to find the most likely path through the graph based on the frequency of words.
+ * To generate a sentence, it either walks the graph greedily, taking the most likely next word at each step,
+ * or (in SearchMode.BEST_PATH) finds the most likely path for the chosen sentence structure with dynamic programming.
  */
 public class Chatbot {
      
@@ -22,8 +27,29 @@ public class Chatbot {
         {"Subject", "Auxiliary", "Verb"},                         // "I don't care"
         {"Subject", "Verb", "Adverb"}                             // "I agree completely"
     };
+
+    /** SENTENCE_STRUCTURES with every type replaced by its interned id (see WordTypes). */
+    public static final int[][] STRUCTURE_TYPES = WordTypes.internAll(SENTENCE_STRUCTURES);
+     
+    /** Frequency added to every word mentioned in the prompt. */
+    public static final int BOOST_AMOUNT = 100;
+     
+    /** Explicit edge count above which buildWordGraph() switches to an implicit graph. */
+    public static final long IMPLICIT_EDGE_THRESHOLD = 20_000_000L;
      
+    // Volatile because buildSnapshot() may read them from another thread
+    private volatile SentenceGrammar grammar = SentenceGrammar.of(SENTENCE_STRUCTURES);
+    private volatile BigramModel bigrams = BigramModel.NONE;
+    /** Successor texts of every word text given its own successors; replaced, never modified. */
+    private volatile LinkedHashMap<String, String[]> successorOverrides = new LinkedHashMap<>();
+    private GraphSnapshot snapshot;
+    private final AtomicReference<GraphSnapshot> nextSnapshot = new AtomicReference<>();
+    private final ChatSession session = new ChatSession();
     private Word[] adjacencyList;  
+    private double buildTimeMillis;
+    private SearchMode searchMode = SearchMode.GREEDY;
+    private boolean tryAllStructures;
+    private long structureBudgetNanos;
      
     /**
      * To complete this method, you will read each line of the given CSV file
@@ -35,194 +61,345 @@ public class Chatbot {
      * Build a Word object from each line, then add it to the hash map,
      * in its appropriate arraylist.
      *
+     * The file is parsed by LexiconLoader, which reads it in large blocks without regex.
+     *
      * @param fileName CSV filename to read
+     * @throws UncheckedIOException If the file cannot be read
+     * @throws IllegalArgumentException If a row is malformed, naming its line
      */
     public HashMap<String, ArrayList<Word>> buildDictionary(String fileName) {
         // WRITE YOUR CODE HERE
-        StdIn.setFile(fileName);
-        HashMap<String, ArrayList<Word>> wordsByType = new HashMap<>();
-        while (!StdIn.isEmpty()) {
-            String line = StdIn.readLine();
-            String[] parts = line.split(",");
-            
-            String text = parts[0];
-            int frequency = Integer.parseInt(parts[1]);
-            String type = parts[2];
-            
-            Word word = new Word(text, frequency, type); 
-            
-            wordsByType.putIfAbsent(type, new ArrayList<>());
-            wordsByType.get(type).add(word);
+        try {
+            return LexiconLoader.load(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + fileName, e);
+        }
+    }
+
+    /**
+     * Replaces SENTENCE_STRUCTURES with the patterns of a grammar file (see SentenceGrammar
+     * for the format, which allows optional and repeated slots). Takes effect at the next
+     * buildWordGraph(), since the graph's edges come from the patterns.
+     *
+     * @param fileName Grammar file to read
+     * @throws UncheckedIOException If the file cannot be read
+     * @throws IllegalArgumentException If a line is malformed
+     */
+    public void loadStructures(String fileName) {
+        try {
+            grammar = SentenceGrammar.load(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + fileName, e);
+        }
+    }
+
+    /**
+     * @return Sentence patterns the next graph is built with
+     */
+    public SentenceGrammar getGrammar() {
+        return grammar;
+    }
+
+    /**
+     * Learns how often each pair of words follows each other in a plain-text corpus (see
+     * BigramTrainer), and adds the learned transition weights to the word scores from now on.
+     * Call after buildWordGraph(); the model is kept as long as rebuilt graphs have the same lexicon.
+     *
+     * @param fileName Corpus to read
+     * @throws UncheckedIOException If the file cannot be read
+     */
+    public void trainBigrams(String fileName) {
+        try {
+            useBigrams(BigramTrainer.train(fileName, snapshot));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + fileName, e);
         }
-        return wordsByType;
+    }
+
+    /**
+     * Loads transition weights saved by saveBigrams(). Call after buildWordGraph().
+     *
+     * @param fileName Saved model to read
+     * @throws UncheckedIOException If the file cannot be read
+     * @throws IllegalArgumentException If the model was trained on a different lexicon
+     */
+    public void loadBigrams(String fileName) {
+        try {
+            useBigrams(BigramModel.load(fileName, snapshot.getGraph()));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + fileName, e);
+        }
+    }
+
+    /**
+     * Saves the current transition weights, so they need not be learned again.
+     *
+     * @param fileName File to write
+     * @throws UncheckedIOException If the file cannot be written
+     */
+    public void saveBigrams(String fileName) {
+        try {
+            bigrams.save(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + fileName, e);
+        }
+    }
+
+    /**
+     * @return Transition weights added to the word scores (BigramModel.NONE if none were learned)
+     */
+    public BigramModel getBigrams() {
+        return bigrams;
+    }
+
+    private void useBigrams(BigramModel model) {
+        bigrams = model;
+        snapshot = new GraphSnapshot(snapshot.getGraph(), snapshot.getGrammar(), model);
     }
      
     /**
      * To complete this method, you will build a directed graph of words
      * The edges of this graph will be based on the sentence structures defined in SENTENCE_STRUCTURES
+     * (or loaded with loadStructures())
      * 
      * All subjects will be connected to auxillary/verbs, verbs to nouns/prepositions/adverbs, etc. 
      * 
+     * Every word becomes a vertex with an int id, and the edges are packed into a
+     * compressed sparse row WordGraph instead of chains of Word copies.
+     * The build is done by WordGraphBuilder in O(V + E); see getBuildTimeMillis().
+     * Large lexicons are built in parallel automatically, and lexicons that would need
+     * more than IMPLICIT_EDGE_THRESHOLD edges get an implicit, type-level graph instead.
+     * 
      * @param wordsByType Hashmap of words by type from buildDictionary()
      */
     public void buildWordGraph(HashMap<String, ArrayList<Word>> wordsByType) {
         // WRITE YOUR CODE HERE
-        ArrayList<Word> allWords = new ArrayList<>();
-        for (ArrayList<Word> wordList : wordsByType.values()) {
-            allWords.addAll(wordList);
-        }   
-
-        adjacencyList = new Word[allWords.size()];
-        for (int i = 0; i < allWords.size(); i++) {
-            adjacencyList[i] = allWords.get(i);
+        WordGraphBuilder builder = newBuilder(wordsByType, grammar);
+        if (builder.estimateEdgeCount() > IMPLICIT_EDGE_THRESHOLD) {
+            useGraph(builder.buildImplicit(), builder);
+        } else {
+            useGraph(builder.build(), builder);
         }
-        
-        for (String[] structure : SENTENCE_STRUCTURES) {
-            for (int i = 0; i < structure.length - 1; i++) {
-                String fromType = structure[i];
-                String toType = structure[i + 1];
+    }
+
+    /**
+     * Same as buildWordGraph(wordsByType), but forces the sequential or the parallel build.
+     * Both produce the same graph.
+     * 
+     * @param wordsByType Hashmap of words by type from buildDictionary()
+     * @param parallel Whether to build the edges across the common ForkJoinPool
+     */
+    public void buildWordGraph(HashMap<String, ArrayList<Word>> wordsByType, boolean parallel) {
+        WordGraphBuilder builder = newBuilder(wordsByType, grammar);
+        useGraph(builder.build(parallel), builder);
+    }
 
-                ArrayList<Word> fromWords = wordsByType.getOrDefault(fromType, new ArrayList<>());
-                ArrayList<Word> toWords = wordsByType.getOrDefault(toType, new ArrayList<>());
+    /**
+     * Builds an implicit word graph, which stores each type transition of the sentence structures
+     * once and serves successors from per-type word arrays. Memory is linear in the vocabulary.
+     * 
+     * @param wordsByType Hashmap of words by type from buildDictionary()
+     */
+    public void buildImplicitWordGraph(HashMap<String, ArrayList<Word>> wordsByType) {
+        WordGraphBuilder builder = newBuilder(wordsByType, grammar);
+        useGraph(builder.buildImplicit(), builder);
+    }
 
-                for (Word fromWord : fromWords) {
-                    int fromIndex = allWords.indexOf(fromWord);
-                    
-                    for (Word toWord : toWords) {
-                        boolean edgeExists = false;
-                        Word current = adjacencyList[fromIndex].getNext();
-                        while (current != null) {
-                            if (current.equals(toWord)) {
-                                edgeExists = true;
-                                break;
-                            }
-                            current = current.getNext();
-                        }
-                        
-                        if (!edgeExists) {
-                            Word edge = new Word(toWord.getText(), toWord.getFrequency(), toWord.getType());
-                            edge.setNext(adjacencyList[fromIndex].getNext());
-                            adjacencyList[fromIndex].setNext(edge);
-                        }
-                    }
-                }
+    /**
+     * Gives every word with the given text its own successors: the words with the given
+     * texts, instead of every word of the types that its type transitions to. Takes effect
+     * at the next buildWordGraph() (or buildSnapshot()), in every graph layout. Texts that
+     * are not in the lexicon are skipped. Safe to call from any thread.
+     *
+     * @param text Text of the words whose successors are replaced
+     * @param successorTexts Texts of their new successors; none to remove the override
+     */
+    public void overrideSuccessors(String text, String... successorTexts) {
+        synchronized (this) {
+            LinkedHashMap<String, String[]> overrides = new LinkedHashMap<>(successorOverrides);
+            if (successorTexts.length == 0) {
+                overrides.remove(text);
+            } else {
+                overrides.put(text, successorTexts.clone());
             }
+            successorOverrides = overrides;
         }
     }
 
     /**
-     * Extracts subjects from the user's input prompt that exist in our dictionary.
-     * This allows the chatbot to respond with some context related to the user's message.
-     * 
-     * @param prompt User's input message
+     * @return A builder for the given words and grammar, with the successor overrides applied
      */
-    private ArrayList<Word> extractSubjectsFromPrompt(String prompt) {
-        // WRITE YOUR CODE HERE
-        ArrayList<Word> foundSubjects = new ArrayList<>();
-        
-        // Parse words manually without regex
-        ArrayList<String> words = new ArrayList<>();
-        StringBuilder currentWord = new StringBuilder();
-        String lowerPrompt = prompt.toLowerCase();
-        
-        for (int i = 0; i < lowerPrompt.length(); i++) {
-            char c = lowerPrompt.charAt(i);
-            if ((c >= 'a' && c <= 'z') || c == ' ') {
-                if (c == ' ') {
-                    if (currentWord.length() > 0) {
-                        words.add(currentWord.toString());
-                        currentWord = new StringBuilder();
-                    }
-                } else {
-                    currentWord.append(c);
-                }
+    private WordGraphBuilder newBuilder(HashMap<String, ArrayList<Word>> wordsByType, SentenceGrammar grammar) {
+        WordGraphBuilder builder = new WordGraphBuilder(wordsByType, grammar.transitionPairs());
+        LinkedHashMap<String, String[]> overrides = successorOverrides;
+        if (overrides.isEmpty()) {
+            return builder;
+        }
+        HashMap<String, ArrayList<Word>> wordsByText = new HashMap<>();
+        for (ArrayList<Word> words : wordsByType.values()) {
+            for (Word word : words) {
+                wordsByText.computeIfAbsent(word.getText(), text -> new ArrayList<>()).add(word);
+            }
+        }
+        for (String text : overrides.keySet()) {
+            ArrayList<Word> successors = new ArrayList<>();
+            for (String successorText : overrides.get(text)) {
+                successors.addAll(wordsByText.getOrDefault(successorText, new ArrayList<>()));
             }
+            for (Word word : wordsByText.getOrDefault(text, new ArrayList<>())) {
+                builder.overrideSuccessors(word, successors);
+            }
+        }
+        return builder;
+    }
+
+    /**
+     * Writes the current graph to a binary file that loadCompiledGraph() can map, so later
+     * runs can skip buildDictionary() and buildWordGraph() (see MappedWordGraph).
+     *
+     * @param fileName File to write
+     * @throws UncheckedIOException If the file cannot be written
+     */
+    public void compileGraph(String fileName) {
+        try {
+            MappedWordGraph.compile(snapshot.getGraph(), snapshot.getGrammar(), fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write " + fileName, e);
         }
-        if (currentWord.length() > 0) {
-            words.add(currentWord.toString());
+    }
+
+    /**
+     * Switches to a graph compiled by compileGraph(), served straight from the memory-mapped
+     * file. getBuildTimeMillis() then reports how long opening it took.
+     *
+     * @param fileName Compiled graph file
+     * @throws UncheckedIOException If the file cannot be read or is not a compiled graph
+     * @throws IllegalArgumentException If it was compiled with other sentence structures
+     */
+    public void loadCompiledGraph(String fileName) {
+        long start = System.nanoTime();
+        MappedWordGraph mapped;
+        try {
+            mapped = MappedWordGraph.map(fileName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + fileName, e);
+        }
+        if (!mapped.isBuiltWith(grammar)) {
+            throw new IllegalArgumentException(fileName + " was compiled with other sentence structures");
+        }
+        useGraph(mapped, (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Moves the current graph out of the Java heap, into a direct buffer laid out like a
+     * compiled graph file (see MappedWordGraph.offHeap()). Generation works the same, but
+     * heap usage and GC pauses no longer grow with the number of edges (the lexicon index,
+     * alias tables and session buffers stay on the heap and grow with the vocabulary).
+     * getBuildTimeMillis() then includes the move.
+     */
+    public void moveGraphOffHeap() {
+        long start = System.nanoTime();
+        WordGraph offHeap = MappedWordGraph.offHeap(snapshot.getGraph(), snapshot.getGrammar());
+        useGraph(offHeap, buildTimeMillis + (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Builds a snapshot from a lexicon file without switching to it, so a new lexicon can be
+     * prepared in the background (see LexiconWatcher) while this chatbot keeps replying.
+     * The graph is built with the current sentence structures, sequentially, so it leaves
+     * the common ForkJoinPool to the replies. It keeps the current bigram model if that
+     * still matches; otherwise the model is learned again from the corpus, if one is given.
+     * Safe to call from any thread.
+     *
+     * @param lexiconFile Lexicon CSV file to read
+     * @param corpusFile Corpus to learn the transition weights of the new lexicon from, or null for none
+     * @param offHeap Whether to keep the graph off the heap (see moveGraphOffHeap())
+     * @return The new snapshot, ready for setSnapshot() or ChatService.setSnapshot()
+     * @throws UncheckedIOException If a file cannot be read
+     * @throws IllegalArgumentException If a row of the lexicon is malformed
+     */
+    public GraphSnapshot buildSnapshot(String lexiconFile, String corpusFile, boolean offHeap) {
+        SentenceGrammar currentGrammar = grammar;
+        WordGraphBuilder builder = newBuilder(buildDictionary(lexiconFile), currentGrammar);
+        WordGraph graph = (builder.estimateEdgeCount() > IMPLICIT_EDGE_THRESHOLD)
+            ? builder.buildImplicit() : builder.build(false);
+        if (offHeap) {
+            graph = MappedWordGraph.offHeap(graph, currentGrammar);
         }
-        
-        // Find matching subjects (case-insensitive without equalsIgnoreCase)
-        for (String word : words) {
-            for (int i = 0; i < adjacencyList.length; i++) {
-                if (adjacencyList[i].getType().equals("Subject") && 
-                    adjacencyList[i].getText().toLowerCase().equals(word)) {
-                    foundSubjects.add(adjacencyList[i]);
-                }
+        BigramModel model = bigrams;
+        GraphSnapshot built = new GraphSnapshot(graph, currentGrammar, model.matches(graph) ? model : BigramModel.NONE);
+        if (built.getBigrams() == BigramModel.NONE && corpusFile != null) {
+            try {
+                built = new GraphSnapshot(graph, currentGrammar, BigramTrainer.train(corpusFile, built));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read " + corpusFile, e);
             }
         }
-        
-        return foundSubjects;
+        return built;
     }
-    
+
+    /**
+     * Switches to the given snapshot at the start of the next message (the next
+     * boostWordsFromPrompt()), so a reply being generated finishes on the current one.
+     * May be called from any thread; if several snapshots come in between two messages,
+     * the last one wins.
+     */
+    public void setSnapshot(GraphSnapshot next) {
+        nextSnapshot.set(next);
+    }
+
+    /**
+     * Switches to a freshly built graph (and its lexicon index), dropping the bigram
+     * model if it was trained on another lexicon.
+     */
+    private void useGraph(WordGraph newGraph, WordGraphBuilder builder) {
+        useGraph(newGraph, builder.getBuildTimeMillis());
+    }
+
+    private void useGraph(WordGraph newGraph, double millis) {
+        if (!bigrams.matches(newGraph)) {
+            bigrams = BigramModel.NONE;
+        }
+        snapshot = new GraphSnapshot(newGraph, grammar, bigrams);
+        buildTimeMillis = millis;
+        adjacencyList = null;
+    }
+
     /**
      * Boosts words mentioned in the user's prompt to make them more likely to appear in responses.
-     * Directly modifies frequency by +100.
+     * Adds +100 to their frequency in the request's BoostOverlay; the graph itself is never modified.
      * 
      * @param prompt User's input message
      * @return true if "the" was found before a subject (for capitalization handling)
      */
     public boolean boostWordsFromPrompt(String prompt) {
         // WRITE YOUR CODE HERE
-        boolean hasThePrefix = false;
-        
-        // Parse words manually without regex
-        ArrayList<String> words = new ArrayList<>();
-        StringBuilder currentWord = new StringBuilder();
-        String lowerPrompt = prompt.toLowerCase();
-        
-        for (int i = 0; i < lowerPrompt.length(); i++) {
-            char c = lowerPrompt.charAt(i);
-            if ((c >= 'a' && c <= 'z') || c == ' ') {
-                if (c == ' ') {
-                    if (currentWord.length() > 0) {
-                        words.add(currentWord.toString());
-                        currentWord = new StringBuilder();
-                    }
-                } else {
-                    currentWord.append(c);
-                }
-            }
-        }
-        if (currentWord.length() > 0) {
-            words.add(currentWord.toString());
-        }
-        
-        // Check for "The" + subject pattern (case-insensitive without equalsIgnoreCase)
-        for (int i = 0; i < words.size() - 1; i++) {
-            if (words.get(i).equals("the")) {
-                // Check if next word is a subject
-                for (int j = 0; j < adjacencyList.length; j++) {
-                    if (adjacencyList[j].getType().equals("Subject") && 
-                        adjacencyList[j].getText().toLowerCase().equals(words.get(i + 1))) {
-                        hasThePrefix = true;
-                        break;
-                    }
-                }
-            }
-        }
-        
-        // Boost all words mentioned in the prompt by directly modifying frequency
-        for (String word : words) {
-            // Boost the word itself (case-insensitive without equalsIgnoreCase)
-            for (int i = 0; i < adjacencyList.length; i++) {
-                if (adjacencyList[i].getText().toLowerCase().equals(word)) {
-                    adjacencyList[i].addFrequency(100);
-                }
-            }
+        GraphSnapshot next = nextSnapshot.getAndSet(null);
+        if (next != null) {
+            snapshot = next;
+            bigrams = next.getBigrams();
+            adjacencyList = null;
         }
-        
-        return hasThePrefix;
+        return snapshot.boostWords(prompt, session);
     }
     
     /**
-     * Resets all word frequencies by subtracting the boost amount.
+     * Drops every boost of the current request (or, with setBoostDecay(), lets them decay).
      * Called after generating a response to ensure boosts don't compound.
+     * Only moves the overlay on to the next message, so it costs O(1) whatever the vocabulary.
      */
     public void resetAllBoosts() {
-        for (int i = 0; i < adjacencyList.length; i++) {
-            adjacencyList[i].addFrequency(-100);
-        }
+        session.boosts.endMessage();
+    }
+
+    /**
+     * Lets the words of a prompt stay boosted in later replies, multiplied by the decay after
+     * each message, so the bot keeps a fading memory of the conversation.
+     *
+     * @param decay Between 0 (boosts last one message, the default) and 1 (exclusive)
+     */
+    public void setBoostDecay(double decay) {
+        session.boosts.setDecay(decay);
     }
     
     /**
@@ -233,11 +410,18 @@ public class Chatbot {
      * 
      * The sentence is constructed by traversing the graph in one of the 
      * valid sentence structures defined in SENTENCE_STRUCTURES.
-     * Uses a greedy best-first search approach to find the highest-scoring path:
-     * at each step, selects the word with the highest score (frequency + hash variation)
+     * By default, uses a greedy best-first search approach to find a high-scoring path:
+     * at each step, selects the word with the highest score (frequency + boost + hash variation)
      * that matches the expected word type for that position in the sentence structure.
+     * With setSearchMode(SearchMode.BEST_PATH), the sentence whose scores add up to the
+     * most over the whole structure is found instead (see BestPathSearch). It is slower.
      * 
      * This is slightly randomized (via hash variation), so a wider variety of sentences are produced.
+     * The variation is a hash of the start word and the ids of each word and the one before it,
+     * so scoring does not allocate, and the sentence text is only assembled once at the end.
+     *
+     * Successors come ranked by frequency, so each step stops scanning once neither the
+     * remaining words nor any boosted word can beat the best score found so far.
      * 
      * Note: this is NOT how actual LLMs work. Instead, this is a simple test generator.
      * @param prompt User's input message
@@ -245,91 +429,88 @@ public class Chatbot {
      * @return A contextual sentence using subjects from the input when possible
      */
     public String generateMostLikelySentence(String prompt, boolean useThePrefix) {  
-        ArrayList<Word> contextualSubjects = extractSubjectsFromPrompt(prompt);
-        ArrayList<Word> subjects = new ArrayList<>();
-        if (contextualSubjects.isEmpty()) {
-            for (int j = 0; j < adjacencyList.length; j++) {
-                if (adjacencyList[j].getType().equals("Subject")) {
-                    subjects.add(adjacencyList[j]);
-                }
-            }
-        } else {
-            subjects = contextualSubjects;
+        if (tryAllStructures) {
+            return snapshot.generateAllStructures(prompt, useThePrefix, session, searchMode, structureBudgetNanos);
         }
+        return snapshot.generate(prompt, useThePrefix, session, searchMode);
+    } 
 
-        Word startWordObj;
-        if (!contextualSubjects.isEmpty()) {
-            startWordObj = contextualSubjects.get(0);
-        } else {
-            startWordObj = (subjects.isEmpty()) ? null : subjects.get(Math.abs(prompt.hashCode()) % subjects.size());
-        }
-        if (startWordObj == null) {
-            return "I don't have anything to say.";
-        }
-        String startWord = startWordObj.getText();
-        String[] chosenStructure = SENTENCE_STRUCTURES[Math.abs(startWord.hashCode()) % SENTENCE_STRUCTURES.length]; 
-        StringBuilder sentence = new StringBuilder();
-        if (useThePrefix) {
-            sentence.append("the ").append(startWord);
-        } else {
-            sentence.append(startWord);
-        }
+    /**
+     * Generates the n highest-scoring distinct sentences for the prompt, best first, with a
+     * single search over the chosen sentence structure. That costs about as much as n
+     * BEST_PATH generations, and several times more than n greedy ones.
+     * 
+     * @param prompt User's input message
+     * @param useThePrefix Whether to prefix the sentences with "the" (detected from user input)
+     * @param n Number of alternative replies wanted
+     * @return Up to n different sentences
+     */
+    public ArrayList<String> generateTopSentences(String prompt, boolean useThePrefix, int n) {
+        return snapshot.generateTop(prompt, useThePrefix, session, n);
+    }
 
-        Word curr = null;
-        for (int i = 0; i < adjacencyList.length; i++) {
-            if (adjacencyList[i] == startWordObj || adjacencyList[i].getText().equalsIgnoreCase(startWord)) {
-                curr = adjacencyList[i];
-                break;
-            }
-        }
-        
-        if (curr == null) {
-            return sentence.toString();
-        }
-        
-        curr = curr.getNext();  
+    /**
+     * Picks between the fast greedy walk (the default), the exact best-path search and
+     * random sampling by frequency.
+     */
+    public void setSearchMode(SearchMode searchMode) {
+        this.searchMode = searchMode;
+    }
 
-        int pos = 1;
-        while (pos < chosenStructure.length) { 
-            String expectedType = chosenStructure[pos++]; 
+    public SearchMode getSearchMode() {
+        return searchMode;
+    }
 
-            Word bestWord = null;
-            int bestScore = Integer.MIN_VALUE;
-            
-            while (curr != null) {
-                if (curr.getType().equals(expectedType)) {
-                    int hashVariation = Math.abs((sentence.toString() + curr.getText()).hashCode()) % 50;
-                    int score = curr.getFrequency() + hashVariation;
-                    
-                    if (score > bestScore) {
-                        bestScore = score;
-                        bestWord = curr;
-                    }
-                }
-                curr = curr.getNext();
-            }
-            
-            if (bestWord != null) {
-                sentence.append(" ").append(bestWord.getText()); 
-                
-                for (int i = 0; i < adjacencyList.length; i++) {
-                    if (adjacencyList[i].equals(bestWord)) {
-                        curr = adjacencyList[i].getNext();
-                        break;
-                    }
-                }
-            }
-        } 
-        
-        String response = sentence.toString();
-        if (response.length() > 0) {
-            response = Character.toUpperCase(response.charAt(0)) + response.substring(1) + ".";
-        }
-        
-        return response;
-    } 
+    /**
+     * Seeds the random generator of SearchMode.SAMPLE, so the same prompts get the same
+     * replies again.
+     */
+    public void setRandomSeed(long seed) {
+        session.setRandomSeed(seed);
+    }
+
+    /**
+     * Makes generateMostLikelySentence() try every sentence structure for the start word
+     * and reply with the best-scoring sentence, instead of using only the structure picked
+     * by the start word's hash. In BEST_PATH mode the structures are searched in parallel,
+     * and searches still running after the budget fall back to their greedy sentence.
+     * 
+     * @param tryAll Whether to try every structure
+     * @param budgetMillis Time allowed for the exact searches, in milliseconds
+     */
+    public void setTryAllStructures(boolean tryAll, double budgetMillis) {
+        this.tryAllStructures = tryAll;
+        this.structureBudgetNanos = (long) (budgetMillis * 1_000_000);
+    }
 
+    /**
+     * Returns the graph as a linked-list adjacency list (each vertex followed by a chain of edge copies).
+     * The list is materialized from the CSR graph on first use and cached until the graph is rebuilt.
+     * Every edge copy carries its target's vertex id, so adjacencyList[edge.getId()] jumps
+     * straight to the successor's own chain instead of searching for it by text.
+     */
     public Word[] getAdjacencyList() {
+        if (adjacencyList == null && snapshot != null) {
+            adjacencyList = snapshot.getGraph().toAdjacencyList();
+        }
         return adjacencyList;
     }
+
+    public WordGraph getWordGraph() {
+        return snapshot.getGraph();
+    }
+
+    /**
+     * @return The current graph as an immutable snapshot, e.g. to serve it through a ChatService
+     */
+    public GraphSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * @return Time taken by the last buildWordGraph() call, in milliseconds
+     */
+    public double getBuildTimeMillis() {
+        return buildTimeMillis;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * A word graph stored in compressed sparse row (CSR) form.
+ *
+ * The successors of vertex v are targets[offsets[v]] up to targets[offsets[v + 1] - 1],
+ * so an edge costs a single int instead of a full Word copy, and the successors
+ * of a vertex sit next to each other in memory.
+ *
+ * The successors of each vertex are grouped by type, and the start and end of every
+ * (vertex, type) group is indexed, so successors() is O(1) instead of a scan of all edges.
+ */
+public class CsrWordGraph implements WordGraph {
+    private final WordArena texts;
+    private final int[] offsets;
+    private final int[] targets;
+    private final int[] frequencies;
+    private final int[] typeIds;
+    private final int typeCount;
+    private final long typeMask;
+    private final int[] groupStarts;
+    private final int[] groupEnds;
+
+    /**
+     * The successors of each vertex must be grouped by type (all Verbs, then all Nouns, ...),
+     * each group from most to least frequent, which is how WordGraphBuilder appends them.
+     *
+     * @param vertices Vertex table, where vertices[i].getId() == i (only their texts, frequencies and types are kept)
+     * @param offsets Edge offsets, of length vertices.length + 1
+     * @param targets Target vertex ids of every edge, grouped by source vertex
+     */
+    public CsrWordGraph(Word[] vertices, int[] offsets, int[] targets) {
+        if (offsets.length != vertices.length + 1) {
+            throw new IllegalArgumentException("offsets must have one entry per vertex plus one");
+        }
+        this.texts = WordArena.of(vertices);
+        this.offsets = offsets;
+        this.targets = targets;
+        this.frequencies = new int[vertices.length];
+        this.typeIds = new int[vertices.length];
+        long mask = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            frequencies[v] = vertices[v].getFrequency();
+            typeIds[v] = vertices[v].getTypeId();
+            mask |= WordTypes.mask(typeIds[v]);
+        }
+        this.typeMask = mask;
+        WordTypes.use(this, mask);
+
+        // Groups are indexed by the type's rank in typeMask, so only the types of this graph take room
+        typeCount = Long.bitCount(mask);
+        groupStarts = new int[WordTypes.groupCount(vertices.length, mask)];
+        groupEnds = new int[groupStarts.length];
+        Arrays.fill(groupStarts, -1);
+        for (int v = 0; v < vertices.length; v++) {
+            int previous = -1;
+            for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+                int t = typeIds[targets[e]];
+                int group = v * typeCount + WordTypes.indexIn(mask, t);
+                if (t != previous) {
+                    if (groupStarts[group] >= 0) {
+                        throw new IllegalArgumentException("Successors of " + texts.getText(v) + " are not grouped by type");
+                    }
+                    groupStarts[group] = e;
+                    previous = t;
+                }
+                groupEnds[group] = e + 1;
+            }
+        }
+    }
+
+    @Override
+    public int size() {
+        return frequencies.length;
+    }
+
+    @Override
+    public long edgeCount() {
+        return targets.length;
+    }
+
+    @Override
+    public WordArena getTexts() {
+        return texts;
+    }
+
+    @Override
+    public int getTypeId(int id) {
+        return typeIds[id];
+    }
+
+    @Override
+    public int getFrequency(int id) {
+        return frequencies[id];
+    }
+
+    @Override
+    public long getTypeMask() {
+        return typeMask;
+    }
+
+    @Override
+    public SuccessorRun successors(int id, int type, SuccessorRun run) {
+        int group = WordTypes.contains(typeMask, type) ? id * typeCount + WordTypes.indexIn(typeMask, type) : -1;
+        if (group < 0 || groupStarts[group] < 0) {
+            run.clear();
+        } else {
+            run.set(targets, groupStarts[group], groupEnds[group]);
+        }
+        return run;
+    }
+
+    /**
+     * @return Index of the first outgoing edge of the given vertex
+     */
+    public int edgeStart(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * @return Index one past the last outgoing edge of the given vertex
+     */
+    public int edgeEnd(int id) {
+        return offsets[id + 1];
+    }
+
+    /**
+     * @return Vertex id that the given edge points to
+     */
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+}
@@ -1,24 +1,54 @@
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 
  
 public class Driver extends JFrame {
 
     public static final String FILENAME = "lexicon.csv";
+    public static final String STRUCTURES_FILENAME = "structures.txt";
+    public static final String GRAPH_FILENAME = "lexicon.graph";
+    public static final String CORPUS_FILENAME = "corpus.txt";
+    public static final String BIGRAMS_FILENAME = "bigrams.bin";
     
     private Chatbot chat;
+    private final boolean compile;
+    private final boolean verbose;
+    private LexiconWatcher lexiconWatcher;
     private JTextArea chatArea;
     private JTextField inputField;
     private JScrollPane scrollPane; 
     private JButton sendChatButton; 
     
-    public Driver() {  
+    /**
+     * @param compile Whether to save the compiled graph and the learned bigrams for the next run
+     * @param verbose Whether to print what was built or loaded, and how long it took
+     */
+    public Driver(boolean compile, boolean verbose) {  
+        this.compile = compile;
+        this.verbose = verbose;
         chat = new Chatbot();
-        HashMap<String, ArrayList<Word>> dictionary = chat.buildDictionary(FILENAME); 
-        chat.buildWordGraph(dictionary);
+        if (new File(STRUCTURES_FILENAME).exists()) {
+            chat.loadStructures(STRUCTURES_FILENAME);
+        }
+        if (!loadCompiledGraph()) {
+            HashMap<String, ArrayList<Word>> dictionary = chat.buildDictionary(FILENAME); 
+            chat.buildWordGraph(dictionary);
+            log("Built word graph: %d words, %d edges in %.1f ms%n",
+                chat.getWordGraph().size(), chat.getWordGraph().edgeCount(), chat.getBuildTimeMillis());
+            // Serve the graph from the compiled file (or else a direct buffer), so its edges do not stay on the heap
+            if (!compileGraph()) {
+                chat.moveGraphOffHeap();
+            }
+        }
+        loadBigrams();
+        watchLexicon();
 
         createChatWindow();
 
@@ -30,6 +60,109 @@ public class Driver extends JFrame {
         addGPTChat("Disclaimer: My responses are algorithmically generated and do not reflect understanding or opinions related to your input. I generate sentences based on graph algorithms, not the meaning of what you type.\n", false);
     }
      
+    /**
+     * Maps the compiled graph if it is newer than the lexicon and the structures it was built from.
+     *
+     * @return Whether it was loaded
+     */
+    private boolean loadCompiledGraph() {
+        File compiled = new File(GRAPH_FILENAME);
+        if (!compiled.exists() || compiled.lastModified() < new File(FILENAME).lastModified()
+                || compiled.lastModified() < new File(STRUCTURES_FILENAME).lastModified()) {
+            return false;
+        }
+        try {
+            chat.loadCompiledGraph(GRAPH_FILENAME);
+        } catch (RuntimeException e) {
+            StdOut.println(e.getMessage());
+            return false;
+        }
+        log("Mapped word graph: %d words, %d edges in %.1f ms%n",
+            chat.getWordGraph().size(), chat.getWordGraph().edgeCount(), chat.getBuildTimeMillis());
+        return true;
+    }
+
+    /**
+     * Writes the graph to GRAPH_FILENAME and maps it back, if compiling was asked for.
+     *
+     * @return Whether the graph is now served from the file
+     */
+    private boolean compileGraph() {
+        if (!compile) {
+            return false;
+        }
+        try {
+            chat.compileGraph(GRAPH_FILENAME);
+            chat.loadCompiledGraph(GRAPH_FILENAME);
+            return true;
+        } catch (RuntimeException e) {
+            StdOut.println(e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Uses the saved bigram model if there is one for this lexicon, or else learns one from
+     * the corpus (if there is one), and saves it if compiling was asked for.
+     */
+    private void loadBigrams() {
+        if (new File(BIGRAMS_FILENAME).exists()) {
+            try {
+                chat.loadBigrams(BIGRAMS_FILENAME);
+                log("Loaded %d word pairs from %s%n", chat.getBigrams().pairCount(), BIGRAMS_FILENAME);
+                return;
+            } catch (IllegalArgumentException e) {
+                StdOut.println(e.getMessage());
+            }
+        }
+        if (new File(CORPUS_FILENAME).exists()) {
+            long start = System.nanoTime();
+            chat.trainBigrams(CORPUS_FILENAME);
+            if (compile) {
+                chat.saveBigrams(BIGRAMS_FILENAME);
+            }
+            log("Learned %d word pairs from %s in %.1f ms%n", chat.getBigrams().pairCount(), CORPUS_FILENAME,
+                (System.nanoTime() - start) / 1e6);
+        }
+    }
+
+    /**
+     * Rebuilds the graph in the background whenever lexicon.csv changes, and switches to it
+     * at the next message, so the vocabulary can be updated without a restart. The watcher
+     * is closed with the window.
+     */
+    private void watchLexicon() {
+        String corpus = new File(CORPUS_FILENAME).exists() ? CORPUS_FILENAME : null;
+        try {
+            lexiconWatcher = new LexiconWatcher(FILENAME,
+                fileName -> chat.buildSnapshot(fileName, corpus, true),
+                snapshot -> {
+                    chat.setSnapshot(snapshot);
+                    log("Reloaded %s: %d words, %d edges%n", FILENAME,
+                        snapshot.getGraph().size(), snapshot.getGraph().edgeCount());
+                },
+                e -> StdOut.println("Keeping the current lexicon: " + e.getMessage()));
+        } catch (IOException e) {
+            StdOut.println("Cannot watch " + FILENAME + ": " + e.getMessage());
+            return;
+        }
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                lexiconWatcher.close();
+            }
+        });
+    }
+
+    /**
+     * Prints a progress message (a printf format and its arguments) in verbose mode.
+     */
+    private void log(String format, Object... args) {
+        if (verbose) {
+            StdOut.printf(format, args);
+        }
+    }
+
     private void createChatWindow() {
         setTitle("BabyGPT");
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -153,9 +286,19 @@ public class Driver extends JFrame {
         }).start();  
     }   
     
+    /**
+     * Usage: java Driver [--compile] [--verbose]
+     *
+     * --compile saves the compiled graph (lexicon.graph) and the learned bigrams (bigrams.bin)
+     * in the working directory, so the next run can load them instead of building them.
+     * --verbose prints what was built or loaded.
+     */
     public static void main(String[] args) {
+        List<String> options = Arrays.asList(args);
+        boolean compile = options.contains("--compile");
+        boolean verbose = options.contains("--verbose");
         SwingUtilities.invokeLater(() -> {
-            new Driver().setVisible(true);
+            new Driver(compile, verbose).setVisible(true);
         });
     }
 }
@@ -0,0 +1,146 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Checks that the parallel graph build gives exactly the graph of the sequential one, and
+ * that both graph layouts honor successor overrides.
+ *
+ * The lexicon is enlarged with numbered copies of its words, so the vertices are split
+ * into several ranges even on a small lexicon. Both builds must then have the same
+ * offsets and the same targets in the same order. Then a few words are given their own
+ * successors with Chatbot.overrideSuccessors(), and the CSR and implicit graphs must both
+ * return exactly those successors, ranked by frequency, and agree everywhere else.
+ * Exits with status 1 at the first difference.
+ *
+ * Usage: java GraphCheck [lexicon.csv] [copies]
+ */
+public class GraphCheck {
+
+    public static void main(String[] args) {
+        String fileName = (args.length > 0) ? args[0] : Driver.FILENAME;
+        int copies = (args.length > 1) ? Integer.parseInt(args[1]) : 8;
+
+        Chatbot chat = new Chatbot();
+        HashMap<String, ArrayList<Word>> wordsByType = copies(chat.buildDictionary(fileName), copies);
+        WordGraphBuilder builder = new WordGraphBuilder(wordsByType, chat.getGrammar().transitionPairs());
+        CsrWordGraph sequential = builder.build(false);
+        CsrWordGraph parallel = builder.build(true);
+        StdOut.printf("%d words, %d edges%n", sequential.size(), sequential.edgeCount());
+
+        if (parallel.size() != sequential.size() || parallel.edgeCount() != sequential.edgeCount()) {
+            fail("parallel build has " + parallel.size() + " words and " + parallel.edgeCount() + " edges");
+        }
+        for (int v = 0; v < sequential.size(); v++) {
+            if (parallel.edgeStart(v) != sequential.edgeStart(v) || parallel.edgeEnd(v) != sequential.edgeEnd(v)) {
+                fail("edges of " + sequential.getText(v) + " differ");
+            }
+            for (int e = sequential.edgeStart(v); e < sequential.edgeEnd(v); e++) {
+                if (parallel.getTarget(e) != sequential.getTarget(e)) {
+                    fail("edge " + e + " of " + sequential.getText(v) + " differs");
+                }
+            }
+        }
+        StdOut.println("OK: parallel and sequential builds are identical");
+
+        checkOverrides(fileName);
+        StdOut.println("OK: both layouts return the overridden successors");
+    }
+
+    private static void checkOverrides(String fileName) {
+        Chatbot chat = new Chatbot();
+        HashMap<String, ArrayList<Word>> wordsByType = chat.buildDictionary(fileName);
+        chat.buildWordGraph(wordsByType, false);
+        WordGraph graph = chat.getWordGraph();
+        // Every 7th word gets the texts of a few words spread over the lexicon as successors
+        HashSet<String> overridden = new HashSet<>();
+        HashMap<String, HashSet<String>> successorTexts = new HashMap<>();
+        for (int v = 0; v < graph.size(); v += 7) {
+            if (overridden.contains(graph.getText(v))) {
+                continue;
+            }
+            String[] texts = new String[4];
+            for (int i = 0; i < texts.length; i++) {
+                texts[i] = graph.getText((v * 31 + i * graph.size() / texts.length) % graph.size());
+            }
+            chat.overrideSuccessors(graph.getText(v), texts);
+            overridden.add(graph.getText(v));
+            successorTexts.put(graph.getText(v), new HashSet<>(Arrays.asList(texts)));
+        }
+
+        chat.buildWordGraph(wordsByType, false);
+        WordGraph csr = chat.getWordGraph();
+        chat.buildImplicitWordGraph(wordsByType);
+        WordGraph implicit = chat.getWordGraph();
+        if (!(csr instanceof CsrWordGraph) || !(implicit instanceof ImplicitWordGraph)) {
+            fail("expected a CSR and an implicit graph");
+        }
+        SuccessorRun csrRun = new SuccessorRun();
+        SuccessorRun implicitRun = new SuccessorRun();
+        for (int v = 0; v < csr.size(); v++) {
+            String text = csr.getText(v);
+            for (int type = 0; type < WordTypes.count(); type++) {
+                csr.successors(v, type, csrRun);
+                implicit.successors(v, type, implicitRun);
+                if (csrRun.size() != implicitRun.size()) {
+                    fail("layouts differ on the successors of " + text + " of type " + WordTypes.name(type));
+                }
+                for (int i = 0; i < csrRun.size(); i++) {
+                    if (csrRun.get(i) != implicitRun.get(i)) {
+                        fail("layouts differ on the successors of " + text + " of type " + WordTypes.name(type));
+                    }
+                }
+                if (overridden.contains(text)) {
+                    checkOverride(csr, v, type, csrRun, successorTexts.get(text));
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that the run holds every word of the given type with one of the given texts,
+     * from most to least frequent.
+     */
+    private static void checkOverride(WordGraph graph, int v, int type, SuccessorRun run, HashSet<String> texts) {
+        int expected = 0;
+        for (int w = 0; w < graph.size(); w++) {
+            if (graph.getTypeId(w) == type && texts.contains(graph.getText(w))) {
+                expected++;
+            }
+        }
+        if (run.size() != expected) {
+            fail(graph.getText(v) + " has " + run.size() + " overridden successors of type "
+                + WordTypes.name(type) + ", expected " + expected);
+        }
+        for (int i = 0; i < run.size(); i++) {
+            int w = run.get(i);
+            if (graph.getTypeId(w) != type || !texts.contains(graph.getText(w))
+                    || (i > 0 && graph.getFrequency(w) > graph.getFrequency(run.get(i - 1)))) {
+                fail("overridden successor " + graph.getText(w) + " of " + graph.getText(v) + " is wrong");
+            }
+        }
+    }
+
+    /**
+     * @return The dictionary plus copies - 1 copies of each word, numbered "word2", "word3", ...
+     */
+    private static HashMap<String, ArrayList<Word>> copies(HashMap<String, ArrayList<Word>> wordsByType, int copies) {
+        HashMap<String, ArrayList<Word>> copied = new HashMap<>();
+        for (String type : wordsByType.keySet()) {
+            ArrayList<Word> words = new ArrayList<>(wordsByType.get(type));
+            for (int c = 2; c <= copies; c++) {
+                for (Word word : wordsByType.get(type)) {
+                    words.add(new Word(word.getText() + c, word.getFrequency(), type));
+                }
+            }
+            copied.put(type, words);
+        }
+        return copied;
+    }
+
+    private static void fail(String message) {
+        StdOut.println("FAILED: " + message);
+        System.exit(1);
+    }
+}
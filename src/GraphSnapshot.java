@@ -0,0 +1,514 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+/**
+ * An immutable, shareable view of a built word graph: the graph, its lexicon index and
+ * the sentence grammar it was built from (unrolled into SentenceLattices).
+ *
+ * Nothing here changes after construction (the alias tables for SearchMode.SAMPLE are
+ * built on first use, once), and all per-request state is passed in as a ChatSession,
+ * so one snapshot can serve any number of threads without locking.
+ */
+public final class GraphSnapshot {
+    /** Largest hash variation added to a word's frequency when scoring it. */
+    static final int MAX_HASH_VARIATION = 49;
+    private static final long HASH_SEED = 0x5DEECE66DL;
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final String NOTHING_TO_SAY = "I don't have anything to say.";
+
+    private final WordGraph graph;
+    private final LexiconIndex lexicon;
+    private final SentenceGrammar grammar;
+    private final BigramModel bigrams;
+    private final SentenceLattice[] patternLattices;
+    private final SentenceLattice grammarLattice;
+    private final SentenceLattice[] branchLattices;
+    private final int[] subjectIds;
+    private final int[] maxFrequencies;
+    private volatile AliasTables aliasTables;
+
+    /**
+     * @param graph Built word graph; must not be modified afterwards
+     * @param structures Sentence structures (as type ids) to generate with
+     */
+    public GraphSnapshot(WordGraph graph, int[][] structures) {
+        this(graph, SentenceGrammar.of(structures));
+    }
+
+    /**
+     * @param graph Built word graph; must not be modified afterwards
+     * @param grammar Sentence patterns to generate with, starting with a subject
+     */
+    public GraphSnapshot(WordGraph graph, SentenceGrammar grammar) {
+        this(graph, grammar, BigramModel.NONE);
+    }
+
+    /**
+     * @param graph Built word graph; must not be modified afterwards
+     * @param grammar Sentence patterns to generate with, starting with a subject
+     * @param bigrams Transition weights added to the word scores (BigramModel.NONE for none)
+     */
+    public GraphSnapshot(WordGraph graph, SentenceGrammar grammar, BigramModel bigrams) {
+        if (!bigrams.matches(graph)) {
+            throw new IllegalArgumentException("Bigram model was trained on a different lexicon");
+        }
+        this.graph = graph;
+        this.lexicon = new LexiconIndex(graph);
+        this.grammar = grammar;
+        this.bigrams = bigrams;
+        this.patternLattices = new SentenceLattice[grammar.patternCount()];
+        for (int p = 0; p < patternLattices.length; p++) {
+            patternLattices[p] = new SentenceLattice(grammar.pattern(p), WordTypes.SUBJECT, SentenceGrammar.MAX_SENTENCE_LENGTH, -1);
+        }
+        this.grammarLattice = new SentenceLattice(grammar.automaton(), WordTypes.SUBJECT, SentenceGrammar.MAX_SENTENCE_LENGTH, -1);
+        int[] firstTypes = grammarLattice.firstTypes();
+        if (firstTypes.length < 2) {
+            this.branchLattices = new SentenceLattice[] {grammarLattice};
+        } else {
+            this.branchLattices = new SentenceLattice[firstTypes.length];
+            for (int b = 0; b < firstTypes.length; b++) {
+                branchLattices[b] = new SentenceLattice(grammar.automaton(), WordTypes.SUBJECT,
+                    SentenceGrammar.MAX_SENTENCE_LENGTH, firstTypes[b]);
+            }
+        }
+
+        int subjectCount = 0;
+        for (int v = 0; v < graph.size(); v++) {
+            if (graph.getTypeId(v) == WordTypes.SUBJECT) {
+                subjectCount++;
+            }
+        }
+        subjectIds = new int[subjectCount];
+        for (int v = 0, i = 0; v < graph.size(); v++) {
+            if (graph.getTypeId(v) == WordTypes.SUBJECT) {
+                subjectIds[i++] = v;
+            }
+        }
+
+        maxFrequencies = new int[WordTypes.count()];
+        Arrays.fill(maxFrequencies, Integer.MIN_VALUE);
+        for (int v = 0; v < graph.size(); v++) {
+            int type = graph.getTypeId(v);
+            maxFrequencies[type] = Math.max(maxFrequencies[type], graph.getFrequency(v));
+        }
+    }
+
+    public WordGraph getGraph() {
+        return graph;
+    }
+
+    public LexiconIndex getLexicon() {
+        return lexicon;
+    }
+
+    public SentenceGrammar getGrammar() {
+        return grammar;
+    }
+
+    public BigramModel getBigrams() {
+        return bigrams;
+    }
+
+    /**
+     * @return Highest frequency of any word of the given type, or Integer.MIN_VALUE if there is none
+     */
+    int maxFrequency(int type) {
+        return (type < maxFrequencies.length) ? maxFrequencies[type] : Integer.MIN_VALUE;
+    }
+
+    /**
+     * Boosts every word mentioned in the prompt by Chatbot.BOOST_AMOUNT in the session's overlay.
+     * Boosts the session still has (see BoostOverlay.setDecay()) from another graph are dropped first.
+     *
+     * @param prompt User's input message
+     * @param session Session serving the request
+     * @return true if "the" was found before a subject (for capitalization handling)
+     */
+    public boolean boostWords(String prompt, ChatSession session) {
+        if (session.boostedGraph != graph) {
+            // The session moved to another graph (e.g. a reloaded lexicon): its boosts are ids of the old one
+            session.boosts.clear();
+            session.boostedGraph = graph;
+        }
+        boolean hasThePrefix = false;
+        PromptTokenizer tokenizer = session.tokenizer;
+        tokenizer.tokenize(prompt, lexicon);
+
+        for (int t = 0; t < tokenizer.size() - 1; t++) {
+            if (tokenizer.tokenEquals(t, "the")) {
+                int entry = tokenizer.entry(t + 1);
+                if (entry >= 0 && lexicon.hasType(entry, WordTypes.SUBJECT)) {
+                    hasThePrefix = true;
+                }
+            }
+        }
+
+        for (int t = 0; t < tokenizer.size(); t++) {
+            int entry = tokenizer.entry(t);
+            if (entry < 0) {
+                continue;
+            }
+            for (int i = 0; i < lexicon.size(entry); i++) {
+                session.boosts.add(lexicon.get(entry, i), Chatbot.BOOST_AMOUNT);
+            }
+        }
+        return hasThePrefix;
+    }
+
+    /**
+     * Generates a sentence for the prompt with a greedy walk. See Chatbot.generateMostLikelySentence().
+     *
+     * @param prompt User's input message
+     * @param useThePrefix Whether to prefix the sentence with "the"
+     * @param session Session serving the request
+     * @return A contextual sentence using subjects from the input when possible
+     */
+    public String generate(String prompt, boolean useThePrefix, ChatSession session) {
+        return generate(prompt, useThePrefix, session, SearchMode.GREEDY);
+    }
+
+    /**
+     * Generates a sentence for the prompt. Each word is scored by frequency + the session's
+     * boost + a hash variation of the edge from the previous word, and the sentence score
+     * is the sum of its word scores (left in session.getLastScore()).
+     *
+     * The start word picks one pattern of the grammar by its hash. If the pattern allows
+     * several lengths (optional or repeated slots), the sentence with the best average
+     * word score is kept.
+     *
+     * The hash variation is mixed from the word ids, so scoring a candidate never builds
+     * a string; the text is assembled once at the end. In GREEDY mode, generating does not
+     * allocate apart from that result.
+     *
+     * @param prompt User's input message
+     * @param useThePrefix Whether to prefix the sentence with "the"
+     * @param session Session serving the request
+     * @param mode GREEDY for the fast walk, BEST_PATH for the highest-scoring sentence,
+     *             SAMPLE for a random sentence drawn by frequency (prompt boosts are not applied)
+     * @return A contextual sentence using subjects from the input when possible
+     */
+    public String generate(String prompt, boolean useThePrefix, ChatSession session, SearchMode mode) {
+        int startId = startWord(prompt, session);
+        if (startId < 0) {
+            session.lastScore = 0;
+            session.lastLength = 0;
+            return NOTHING_TO_SAY;
+        }
+        SentenceLattice lattice = patternLattices[patternFor(startId)];
+        long seed = sentenceSeed(startId, useThePrefix);
+
+        if (mode == SearchMode.SAMPLE) {
+            int length = sample(lattice, startId, seed, session);
+            return toSentence(session.path(length), length, useThePrefix, session.sentence);
+        }
+        session.greedy.walk(this, lattice, startId, seed, session);
+        boolean exact = mode == SearchMode.BEST_PATH
+            && session.search.search(this, lattice, session.greedy, seed, 1, session, BestPathSearch.NO_DEADLINE);
+
+        int length = copyCandidate(session, exact, session);
+        return toSentence(session.path(length), length, useThePrefix, session.sentence);
+    }
+
+    /**
+     * Like generate(), but decodes the start word with every pattern of the grammar at once
+     * instead of the one picked by its hash, and returns the best sentence of any of them.
+     * Sentences are compared by their average word score (so longer patterns don't win by
+     * length), and ones that end early only win if no pattern can be completed.
+     *
+     * All patterns are decoded together over the grammar's automaton, so words for states
+     * shared by several patterns are chosen (or searched) once. In BEST_PATH mode, the
+     * branches of the automaton (one per type of the second word) are searched in parallel
+     * on the common ForkJoinPool. Once the budget runs out, searches still running give up,
+     * and their branch competes with its greedy sentence instead. With a tight budget, the
+     * reply can therefore depend on timing.
+     *
+     * @param prompt User's input message
+     * @param useThePrefix Whether to prefix the sentence with "the"
+     * @param session Session serving the request
+     * @param mode Search used for each branch (SAMPLE draws one sentence over every pattern)
+     * @param budgetNanos Time allowed for the exact searches, in nanoseconds
+     * @return The best sentence found
+     */
+    public String generateAllStructures(String prompt, boolean useThePrefix, ChatSession session, SearchMode mode, long budgetNanos) {
+        int startId = startWord(prompt, session);
+        if (startId < 0) {
+            session.lastScore = 0;
+            session.lastLength = 0;
+            return NOTHING_TO_SAY;
+        }
+        long deadline = System.nanoTime() + budgetNanos;
+        long seed = sentenceSeed(startId, useThePrefix);
+
+        if (mode == SearchMode.SAMPLE) {
+            int length = sample(grammarLattice, startId, seed, session);
+            return toSentence(session.path(length), length, useThePrefix, session.sentence);
+        }
+        if (mode == SearchMode.GREEDY) {
+            session.greedy.walk(this, grammarLattice, startId, seed, session);
+            int length = copyCandidate(session, false, session);
+            return toSentence(session.path(length), length, useThePrefix, session.sentence);
+        }
+
+        int branches = branchLattices.length;
+        ChatSession[] workers = session.workers(branches);
+        boolean[] exact = session.exact(branches);
+        // The workers read session.boosts from other threads. That is only safe because
+        // nothing writes the boosts during the search; they change again after it returns.
+        IntStream.range(0, branches).parallel().forEach(b -> {
+            ChatSession worker = workers[b];
+            worker.greedy.walk(this, branchLattices[b], startId, seed, worker);
+            exact[b] = worker.search.search(this, branchLattices[b], worker.greedy, seed, 1, worker, deadline);
+        });
+
+        int bestBranch = 0;
+        for (int b = 1; b < branches; b++) {
+            if (isBetter(candidateComplete(workers[b], exact[b]), candidateScore(workers[b], exact[b]),
+                    candidateLength(workers[b], exact[b]), candidateComplete(workers[bestBranch], exact[bestBranch]),
+                    candidateScore(workers[bestBranch], exact[bestBranch]), candidateLength(workers[bestBranch], exact[bestBranch]))) {
+                bestBranch = b;
+            }
+        }
+
+        int length = copyCandidate(workers[bestBranch], exact[bestBranch], session);
+        return toSentence(session.path(length), length, useThePrefix, session.sentence);
+    }
+
+    /**
+     * Compares two sentences: complete ones (that follow a pattern to its end) beat the others,
+     * complete ones are ranked by average score per word after the first, and incomplete ones
+     * by length, then score.
+     */
+    static boolean isBetter(boolean complete, int score, int length, boolean otherComplete, int otherScore, int otherLength) {
+        if (complete != otherComplete) {
+            return complete;
+        }
+        if (!complete && length != otherLength) {
+            return length > otherLength;
+        }
+        return (long) score * Math.max(1, otherLength - 1) > (long) otherScore * Math.max(1, length - 1);
+    }
+
+    /**
+     * Generates the n highest-scoring distinct sentences for the prompt's start word and
+     * pattern with one k-best search (see BestPathSearch), best first. The first one is
+     * what generate() returns in BEST_PATH mode. The search costs about as much as n
+     * separate BEST_PATH searches, and more than n greedy or sampled generations.
+     *
+     * @param prompt User's input message
+     * @param useThePrefix Whether to prefix the sentences with "the"
+     * @param session Session serving the request
+     * @param n Number of sentences wanted
+     * @return Up to n sentences; fewer if the graph does not allow n different ones
+     */
+    public ArrayList<String> generateTop(String prompt, boolean useThePrefix, ChatSession session, int n) {
+        ArrayList<String> sentences = new ArrayList<>();
+        int startId = startWord(prompt, session);
+        if (startId < 0) {
+            session.lastScore = 0;
+            session.lastLength = 0;
+            sentences.add(NOTHING_TO_SAY);
+            return sentences;
+        }
+        SentenceLattice lattice = patternLattices[patternFor(startId)];
+        long seed = sentenceSeed(startId, useThePrefix);
+
+        BestPathSearch search = session.search;
+        session.greedy.walk(this, lattice, startId, seed, session);
+        search.search(this, lattice, session.greedy, seed, n, session, BestPathSearch.NO_DEADLINE);
+        for (int r = 0; r < search.resultCount(); r++) {
+            int length = search.copyPath(r, session.path(SentenceGrammar.MAX_SENTENCE_LENGTH));
+            String sentence = toSentence(session.path(length), length, useThePrefix, session.sentence);
+            // Different words can share a text (e.g. a duplicated lexicon row)
+            if (!sentences.contains(sentence)) {
+                sentences.add(sentence);
+            }
+        }
+        session.lastScore = search.resultScore(0);
+        session.lastLength = search.resultLength(0);
+        return sentences;
+    }
+
+    /**
+     * @return The first subject mentioned in the prompt, or else a subject picked by the prompt's hash; -1 if there are no subjects
+     */
+    private int startWord(String prompt, ChatSession session) {
+        int startId = firstSubject(prompt, session);
+        if (startId < 0 && subjectIds.length > 0) {
+            startId = subjectIds[Math.abs(prompt.hashCode()) % subjectIds.length];
+        }
+        return startId;
+    }
+
+    /**
+     * @return Index of the grammar pattern used for sentences starting with the given word
+     */
+    private int patternFor(int startId) {
+        return Math.abs(graph.getTexts().hash(startId)) % patternLattices.length;
+    }
+
+    /**
+     * @return Whether the sentence decoded by the source session (exactly, or else greedily) is complete
+     */
+    private static boolean candidateComplete(ChatSession source, boolean exact) {
+        return exact ? source.search.isComplete() : source.greedy.isComplete();
+    }
+
+    /**
+     * @return Score of the sentence decoded by the source session
+     */
+    private static int candidateScore(ChatSession source, boolean exact) {
+        return exact ? source.search.resultScore(0) : source.greedy.score(source.greedy.best());
+    }
+
+    /**
+     * @return Number of words of the sentence decoded by the source session
+     */
+    private static int candidateLength(ChatSession source, boolean exact) {
+        return exact ? source.search.resultLength(0) : source.greedy.bestLength();
+    }
+
+    /**
+     * Copies the sentence decoded by the source session into the session's scratch path,
+     * and records it as the session's last sentence.
+     *
+     * @return Its number of words
+     */
+    private static int copyCandidate(ChatSession source, boolean exact, ChatSession session) {
+        int[] path = session.path(SentenceGrammar.MAX_SENTENCE_LENGTH);
+        session.lastScore = candidateScore(source, exact);
+        session.lastLength = exact ? source.search.copyPath(0, path) : source.greedy.copyBest(path);
+        return session.lastLength;
+    }
+
+    /**
+     * Draws a sentence at random from the lattice (see SearchMode.SAMPLE) into the session's
+     * scratch path, and records it as the session's last sentence.
+     *
+     * Each word is drawn from the alias table of its predecessor and type, so a step is O(1)
+     * whatever the lexicon size. Where the lattice branches, a word type is picked in
+     * proportion to the total frequency of the predecessor's successors of that type, and
+     * where a sentence may end, it ends with the same chance as each live branch.
+     *
+     * @return Its number of words
+     */
+    private int sample(SentenceLattice lattice, int startId, long seed, ChatSession session) {
+        AliasTables tables = aliasTables();
+        SplittableRandom random = session.random;
+        int[] path = session.path(SentenceGrammar.MAX_SENTENCE_LENGTH);
+        path[0] = startId;
+        int length = 1;
+        int score = 0;
+        int node = 0;
+        while (true) {
+            int fromId = path[length - 1];
+            long total = 0;
+            int branches = 0;
+            for (int i = lattice.outStart(node); i < lattice.outStart(node + 1); i++) {
+                long weight = tables.weight(fromId, lattice.edgeType(lattice.outEdge(i)));
+                total += weight;
+                branches += (weight > 0) ? 1 : 0;
+            }
+            if (branches == 0 || (lattice.isAccepting(node) && random.nextInt(branches + 1) == 0)) {
+                break;
+            }
+            long pick = random.nextLong(total);
+            int edge = -1;
+            for (int i = lattice.outStart(node); pick >= 0; i++) {
+                edge = lattice.outEdge(i);
+                pick -= tables.weight(fromId, lattice.edgeType(edge));
+            }
+            int id = tables.sample(fromId, lattice.edgeType(edge), random);
+            score += graph.getFrequency(id) + session.boosts.get(id) + hashVariation(seed, fromId, id) + bigrams.weight(fromId, id);
+            path[length++] = id;
+            node = lattice.edgeTo(edge);
+        }
+        session.lastScore = score;
+        session.lastLength = length;
+        return length;
+    }
+
+    /**
+     * @return The alias tables of the graph, built on first use
+     */
+    AliasTables aliasTables() {
+        AliasTables tables = aliasTables;
+        if (tables == null) {
+            synchronized (this) {
+                tables = aliasTables;
+                if (tables == null) {
+                    tables = new AliasTables(graph);
+                    aliasTables = tables;
+                }
+            }
+        }
+        return tables;
+    }
+
+    /**
+     * @return Id of the first subject mentioned in the prompt, or -1 if there is none
+     */
+    private int firstSubject(String prompt, ChatSession session) {
+        PromptTokenizer tokenizer = session.tokenizer;
+        tokenizer.tokenize(prompt, lexicon);
+        for (int t = 0; t < tokenizer.size(); t++) {
+            int entry = tokenizer.entry(t);
+            if (entry >= 0) {
+                int id = lexicon.firstOfType(entry, WordTypes.SUBJECT);
+                if (id >= 0) {
+                    return id;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Joins the words of a path into a capitalized sentence ending with a period.
+     */
+    private String toSentence(int[] path, int length, boolean useThePrefix, StringBuilder sentence) {
+        sentence.setLength(0);
+        if (useThePrefix) {
+            sentence.append("the ");
+        }
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            graph.getTexts().appendText(path[i], sentence);
+        }
+        if (sentence.length() > 0) {
+            sentence.setCharAt(0, Character.toUpperCase(sentence.charAt(0)));
+        }
+        return sentence.append('.').toString();
+    }
+
+    /**
+     * Seed for the hash variation of a sentence, from its start word (and whether it starts with "the").
+     */
+    static long sentenceSeed(int startId, boolean useThePrefix) {
+        long seed = mix(HASH_SEED + startId * GOLDEN_GAMMA);
+        return useThePrefix ? mix(seed + GOLDEN_GAMMA) : seed;
+    }
+
+    /**
+     * Only depends on the sentence seed and the edge, not on the words before it,
+     * so a sentence's score can be maximized one layer at a time (see BestPathSearch).
+     *
+     * @return Pseudo-random variation between 0 and MAX_HASH_VARIATION for the edge fromId -> id
+     */
+    static int hashVariation(long seed, int fromId, int id) {
+        long h = mix(mix(seed + (fromId + 1) * GOLDEN_GAMMA) + (id + 1) * GOLDEN_GAMMA);
+        return (int) (((h >>> 32) * (MAX_HASH_VARIATION + 1)) >>> 32);
+    }
+
+    /**
+     * SplitMix64 finalizer: spreads every input bit over the whole output.
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Greedy decoding of the nodes of a SentenceLattice: each node takes the best-scoring
+ * word reachable over one of its in-edges from the word chosen for that edge's source.
+ *
+ * Nodes shared by several patterns are decoded once, and a node reached over several
+ * edges keeps the best of them, like a beam search of width one. The greedy sentence is
+ * the chain of words leading to the best accepting node (see GraphSnapshot.isBetter());
+ * if no accepting node got a word, it is the best of the longest chains instead.
+ *
+ * Holds reusable per-node buffers, so one instance belongs to one ChatSession.
+ */
+public class GreedyWalk {
+    private int[] ids = new int[0];
+    private int[] scores = new int[0];
+    private int[] parents = new int[0];
+    private int[] edges = new int[0];
+    private SentenceLattice lattice;
+    private int best;
+
+    /**
+     * Chooses a word for every node of the lattice, then picks the greedy sentence.
+     *
+     * @param snapshot Graph to walk
+     * @param lattice Sentences being decoded
+     * @param startId Word of node 0
+     * @param seed Sentence seed for the hash variation (see GraphSnapshot.sentenceSeed())
+     * @param session Session whose boosts are applied
+     */
+    void walk(GraphSnapshot snapshot, SentenceLattice lattice, int startId, long seed, ChatSession session) {
+        WordGraph graph = snapshot.getGraph();
+        BigramModel bigrams = snapshot.getBigrams();
+        BoostOverlay boosts = session.boosts;
+        SuccessorRun run = session.run;
+        this.lattice = lattice;
+        if (ids.length < lattice.size()) {
+            ids = new int[lattice.size()];
+            scores = new int[lattice.size()];
+            parents = new int[lattice.size()];
+            edges = new int[lattice.size()];
+        }
+        ids[0] = startId;
+        scores[0] = 0;
+        parents[0] = -1;
+        edges[0] = -1;
+        best = 0;
+
+        for (int node = 1; node < lattice.size(); node++) {
+            ids[node] = -1;
+            long bestScore = Long.MIN_VALUE;
+
+            for (int e = lattice.edgeStart(node); e < lattice.edgeStart(node + 1); e++) {
+                int parent = lattice.edgeFrom(e);
+                int fromId = ids[parent];
+                if (fromId < 0) {
+                    continue;
+                }
+                int expectedType = lattice.edgeType(e);
+                long base = scores[parent];
+
+                int boostedBound = boosts.maxBoostedFrequency(graph, expectedType);
+                if (boostedBound != Integer.MIN_VALUE) {
+                    boostedBound += GraphSnapshot.MAX_HASH_VARIATION;
+                }
+
+                int maxWeight = bigrams.maxWeight(fromId);
+
+                graph.successors(fromId, expectedType, run);
+                for (int i = 0; i < run.size(); i++) {
+                    int id = run.get(i);
+                    if (base + graph.getFrequency(id) + GraphSnapshot.MAX_HASH_VARIATION + maxWeight <= bestScore
+                            && base + boostedBound + maxWeight <= bestScore) {
+                        break;
+                    }
+                    long score = base + graph.getFrequency(id) + boosts.get(id) + GraphSnapshot.hashVariation(seed, fromId, id)
+                        + bigrams.weight(fromId, id);
+
+                    if (score > bestScore) {
+                        bestScore = score;
+                        ids[node] = id;
+                        parents[node] = parent;
+                        edges[node] = e;
+                    }
+                }
+            }
+
+            if (ids[node] >= 0) {
+                scores[node] = (int) bestScore;
+                if (GraphSnapshot.isBetter(lattice.isAccepting(node), scores[node], lattice.depth(node) + 1,
+                        lattice.isAccepting(best), scores[best], lattice.depth(best) + 1)) {
+                    best = node;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Word chosen for the node by the last walk(), or -1 if none could reach it
+     */
+    int id(int node) {
+        return ids[node];
+    }
+
+    /**
+     * @return Total score of the words chosen on the way to the node
+     */
+    int score(int node) {
+        return scores[node];
+    }
+
+    /**
+     * @return Node whose chosen word precedes the node's one
+     */
+    int parent(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return Lattice edge the node's word was reached over
+     */
+    int edge(int node) {
+        return edges[node];
+    }
+
+    /**
+     * @return Last node of the greedy sentence
+     */
+    int best() {
+        return best;
+    }
+
+    /**
+     * @return Whether the greedy sentence follows a pattern to its end
+     */
+    boolean isComplete() {
+        return lattice.isAccepting(best);
+    }
+
+    /**
+     * @return Number of words in the greedy sentence
+     */
+    int bestLength() {
+        return lattice.depth(best) + 1;
+    }
+
+    /**
+     * Writes the greedy sentence into path.
+     *
+     * @return Its number of words
+     */
+    int copyBest(int[] path) {
+        int node = best;
+        int length = lattice.depth(node) + 1;
+        for (int i = length - 1; i >= 0; i--) {
+            path[i] = ids[node];
+            node = parents[node];
+        }
+        return length;
+    }
+}
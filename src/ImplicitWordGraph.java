@@ -0,0 +1,135 @@
+import java.util.BitSet;
+
+/**
+ * A word graph whose edges are implied by type transitions instead of being stored.
+ *
+ * Every edge built from SENTENCE_STRUCTURES connects all words of one type to all
+ * words of another, so it is enough to store each type transition once and serve
+ * the successors from a per-type array of word ids. Only words whose successors differ
+ * from their type's default get an explicit (CSR) successor list.
+ * Memory is linear in the vocabulary instead of quadratic.
+ */
+public class ImplicitWordGraph implements WordGraph {
+    private final WordArena texts;
+    private final int[] frequencies;
+    private final int[] typeIds;
+    private final int[][] idsByType;
+    private final long[] transitionMasks;
+    private final long typeMask;
+    private final BitSet overridden;
+    private final int[] overrideOffsets;
+    private final int[] overrideTargets;
+    private final long edgeCount;
+
+    /**
+     * @param vertices Vertex table, where vertices[i].getId() == i (only their texts, frequencies and types are kept)
+     * @param idsByType Ids of the words of each type id, from most to least frequent (null if none)
+     * @param transitionMasks Bitmask of the types that words of each type id may be followed by
+     * @param overridden Vertices that use their explicit successor list instead of the type default
+     * @param overrideOffsets CSR offsets of the explicit successor lists, of length vertices.length + 1
+     * @param overrideTargets Explicit successor ids, grouped by source vertex and then by type,
+     *                        each group from most to least frequent
+     */
+    public ImplicitWordGraph(Word[] vertices, int[][] idsByType,
+                             long[] transitionMasks, BitSet overridden,
+                             int[] overrideOffsets, int[] overrideTargets) {
+        if (overrideOffsets.length != vertices.length + 1) {
+            throw new IllegalArgumentException("overrideOffsets must have one entry per vertex plus one");
+        }
+        this.texts = WordArena.of(vertices);
+        this.frequencies = new int[vertices.length];
+        this.typeIds = new int[vertices.length];
+        for (int v = 0; v < vertices.length; v++) {
+            frequencies[v] = vertices[v].getFrequency();
+            typeIds[v] = vertices[v].getTypeId();
+        }
+        this.idsByType = idsByType;
+        this.transitionMasks = transitionMasks;
+        this.overridden = overridden;
+        this.overrideOffsets = overrideOffsets;
+        this.overrideTargets = overrideTargets;
+
+        long mask = 0;
+        for (int type = 0; type < idsByType.length; type++) {
+            if (idsByType[type] != null) {
+                mask |= WordTypes.mask(type);
+            }
+        }
+        this.typeMask = mask;
+        WordTypes.use(this, mask);
+
+        long count = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            if (overridden.get(v)) {
+                count += overrideOffsets[v + 1] - overrideOffsets[v];
+                continue;
+            }
+            long toTypes = transitionMask(typeIds[v]);
+            for (int type = 0; type < idsByType.length; type++) {
+                if (WordTypes.contains(toTypes, type) && idsByType[type] != null) {
+                    count += idsByType[type].length;
+                }
+            }
+        }
+        this.edgeCount = count;
+    }
+
+    @Override
+    public int size() {
+        return frequencies.length;
+    }
+
+    @Override
+    public long edgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public WordArena getTexts() {
+        return texts;
+    }
+
+    @Override
+    public int getTypeId(int id) {
+        return typeIds[id];
+    }
+
+    @Override
+    public int getFrequency(int id) {
+        return frequencies[id];
+    }
+
+    @Override
+    public long getTypeMask() {
+        return typeMask;
+    }
+
+    @Override
+    public SuccessorRun successors(int id, int type, SuccessorRun run) {
+        if (overridden.get(id)) {
+            int e = overrideOffsets[id];
+            int end = overrideOffsets[id + 1];
+            while (e < end && typeIds[overrideTargets[e]] != type) {
+                e++;
+            }
+            int start = e;
+            while (e < end && typeIds[overrideTargets[e]] == type) {
+                e++;
+            }
+            run.set(overrideTargets, start, e);
+            return run;
+        }
+
+        if (type < idsByType.length && idsByType[type] != null
+                && WordTypes.contains(transitionMask(typeIds[id]), type)) {
+            run.set(idsByType[type], 0, idsByType[type].length);
+        } else {
+            run.clear();
+        }
+        return run;
+    }
+
+    private long transitionMask(int fromType) {
+        return (fromType < transitionMasks.length) ? transitionMasks[fromType] : 0;
+    }
+}
@@ -0,0 +1,134 @@
+import java.util.Arrays;
+
+/**
+ * Case-insensitive index from word text to the vertex ids of a WordGraph.
+ *
+ * Each distinct text (ignoring case) is an entry, holding every id with that text (e.g.
+ * "love" the verb and "love" the noun) and a bitmask of their types, so "is this a
+ * subject?" is a single mask test. Entries are found through an open-addressing table of
+ * entry numbers, and compared with the lowercase forms and hashes kept in the graph's
+ * WordArena, so the index holds no Strings at all. Lookups take any CharSequence range and
+ * lowercase it on the fly, so they don't allocate.
+ */
+public class LexiconIndex {
+    private static final int EMPTY = -1;
+
+    private final int[] table;
+    private final int[] hashes;
+    private final int[] starts;
+    private final long[] typeMasks;
+    private final int[] ids;
+    private final WordArena texts;
+    private final WordGraph graph;
+
+    public LexiconIndex(WordGraph graph) {
+        this.graph = graph;
+        this.texts = graph.getTexts();
+        int n = graph.size();
+
+        // Number the distinct texts in order of first appearance
+        table = new int[Integer.highestOneBit(Math.max(2, n * 2 - 1)) << 1];
+        Arrays.fill(table, EMPTY);
+        int[] entryOf = new int[n];
+        int[] firstIds = new int[n];
+        int[] counts = new int[n];
+        int entryCount = 0;
+        for (int v = 0; v < n; v++) {
+            int slot = slotOf(v, firstIds);
+            if (table[slot] == EMPTY) {
+                table[slot] = entryCount;
+                firstIds[entryCount++] = v;
+            }
+            entryOf[v] = table[slot];
+            counts[entryOf[v]]++;
+        }
+
+        hashes = new int[entryCount];
+        starts = new int[entryCount + 1];
+        for (int e = 0; e < entryCount; e++) {
+            starts[e + 1] = starts[e] + counts[e];
+            hashes[e] = texts.lowerHash(firstIds[e]);
+        }
+        typeMasks = new long[entryCount];
+        ids = new int[n];
+        int[] next = Arrays.copyOf(starts, entryCount);
+        for (int v = 0; v < n; v++) {
+            int e = entryOf[v];
+            ids[next[e]++] = v;
+            typeMasks[e] |= WordTypes.mask(graph.getTypeId(v));
+        }
+    }
+
+    /**
+     * @return Entry for the given text (ignoring case), or -1 if no word has that text
+     */
+    public int find(CharSequence text) {
+        return find(text, 0, text.length());
+    }
+
+    /**
+     * @return Entry for text[start, end) (ignoring case), or -1 if no word has that text
+     */
+    public int find(CharSequence text, int start, int end) {
+        int hash = WordArena.lowerHash(text, start, end);
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        while (table[slot] != EMPTY) {
+            int entry = table[slot];
+            if (hashes[entry] == hash && texts.equalsIgnoreCase(ids[starts[entry]], text, start, end)) {
+                return entry;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * @return Number of words (of any type) with the text of this entry
+     */
+    public int size(int entry) {
+        return starts[entry + 1] - starts[entry];
+    }
+
+    /**
+     * @return The i-th vertex id with the text of this entry, in vertex order
+     */
+    public int get(int entry, int i) {
+        return ids[starts[entry] + i];
+    }
+
+    /**
+     * @return Whether some word with the text of this entry has the given type
+     */
+    public boolean hasType(int entry, int type) {
+        return WordTypes.contains(typeMasks[entry], type);
+    }
+
+    /**
+     * @return First vertex id with the text of this entry and the given type, or -1 if there is none
+     */
+    public int firstOfType(int entry, int type) {
+        if (!hasType(entry, type)) {
+            return -1;
+        }
+        for (int i = starts[entry]; i < starts[entry + 1]; i++) {
+            if (graph.getTypeId(ids[i]) == type) {
+                return ids[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param firstIds First vertex id of every entry so far
+     * @return Slot of the entry with the text of vertex v, or the empty slot where it belongs
+     */
+    private int slotOf(int v, int[] firstIds) {
+        int mask = table.length - 1;
+        int slot = texts.lowerHash(v) & mask;
+        while (table[slot] != EMPTY && !texts.equalsIgnoreCase(firstIds[table[slot]], v)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Reads a lexicon CSV file, one "text,frequency,type" row per word, into words grouped by type.
+ *
+ * The file is read through a FileChannel in large blocks and each row is parsed in place,
+ * byte by byte: there is no regex, and no String per line, frequency or type (only the
+ * word's text becomes a String). Each distinct type name is interned once, so large
+ * lexicons load at close to disk speed. Rows may end in "\n" or "\r\n", empty fields after
+ * the type are ignored, and blank lines are skipped. A malformed row fails with the file name and line number.
+ */
+public final class LexiconLoader {
+    /** Bytes read at a time (the buffer grows if a single row is longer). */
+    private static final int BLOCK = 1 << 20;
+
+    private final String fileName;
+    private final HashMap<String, ArrayList<Word>> wordsByType = new HashMap<>();
+    private byte[][] typeNames = new byte[8][];
+    private int[] typeIds = new int[8];
+    private final ArrayList<ArrayList<Word>> typeWords = new ArrayList<>();
+    private int typeCount;
+    private int line;
+
+    private LexiconLoader(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * @param fileName Lexicon CSV file to read
+     * @return Words by type name, in file order
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If a row is malformed, naming the file and line
+     */
+    public static HashMap<String, ArrayList<Word>> load(String fileName) throws IOException {
+        LexiconLoader loader = new LexiconLoader(fileName);
+        loader.read();
+        return loader.wordsByType;
+    }
+
+    private void read() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            byte[] bytes = new byte[BLOCK];
+            int size = 0;
+            int scanned = 0;
+            boolean first = true;
+            while (true) {
+                int read = channel.read(ByteBuffer.wrap(bytes, size, bytes.length - size));
+                if (read > 0) {
+                    size += read;
+                }
+                int rowStart = 0;
+                if (first && size >= 3 && bytes[0] == (byte) 0xEF && bytes[1] == (byte) 0xBB && bytes[2] == (byte) 0xBF) {
+                    // UTF-8 byte order mark
+                    rowStart = 3;
+                    scanned = 3;
+                }
+                first = false;
+                for (int i = scanned; i < size; i++) {
+                    if (bytes[i] == '\n') {
+                        parseRow(bytes, rowStart, i);
+                        rowStart = i + 1;
+                    }
+                }
+                if (read < 0) {
+                    if (rowStart < size) {
+                        parseRow(bytes, rowStart, size);
+                    }
+                    return;
+                }
+                // Move the unfinished row to the front, growing the buffer if it fills it
+                size -= rowStart;
+                if (rowStart == 0 && size == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                } else {
+                    System.arraycopy(bytes, rowStart, bytes, 0, size);
+                }
+                scanned = size;
+            }
+        }
+    }
+
+    /**
+     * Parses the row in bytes[start, end) (without its '\n') and adds its word.
+     */
+    private void parseRow(byte[] bytes, int start, int end) {
+        line++;
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start) {
+            return;
+        }
+        int textEnd = indexOf(bytes, start, end, (byte) ',');
+        int frequencyEnd = (textEnd < end) ? indexOf(bytes, textEnd + 1, end, (byte) ',') : end;
+        if (frequencyEnd == end) {
+            throw error("expected text,frequency,type but got \"" + text(bytes, start, end) + "\"");
+        }
+        // Trailing empty fields ("word,5,Noun,,") are ignored, as String.split(",") did
+        int typeEnd = indexOf(bytes, frequencyEnd + 1, end, (byte) ',');
+        for (int i = typeEnd; i < end; i++) {
+            if (bytes[i] != ',') {
+                throw error("too many fields in \"" + text(bytes, start, end) + "\"");
+            }
+        }
+        end = typeEnd;
+        if (textEnd == start) {
+            throw error("empty word");
+        }
+        if (frequencyEnd + 1 == end) {
+            throw error("empty type");
+        }
+        int frequency = parseFrequency(bytes, textEnd + 1, frequencyEnd);
+        int typeIndex = typeIndex(bytes, frequencyEnd + 1, end);
+        typeWords.get(typeIndex).add(new Word(text(bytes, start, textEnd), frequency, typeIds[typeIndex]));
+    }
+
+    private int parseFrequency(byte[] bytes, int start, int end) {
+        boolean negative = start < end && bytes[start] == '-';
+        int i = (start < end && (negative || bytes[start] == '+')) ? start + 1 : start;
+        if (i == end) {
+            throw error("bad frequency \"" + text(bytes, start, end) + "\"");
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw error("bad frequency \"" + text(bytes, start, end) + "\"");
+            }
+            value = value * 10 + digit;
+            if (value > Integer.MAX_VALUE + 1L) {
+                throw error("frequency out of range \"" + text(bytes, start, end) + "\"");
+            }
+        }
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            throw error("frequency out of range \"" + text(bytes, start, end) + "\"");
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return Index of the type named by bytes[start, end) among the types seen so far, adding it if it is new
+     */
+    private int typeIndex(byte[] bytes, int start, int end) {
+        for (int t = 0; t < typeCount; t++) {
+            if (Arrays.equals(typeNames[t], 0, typeNames[t].length, bytes, start, end)) {
+                return t;
+            }
+        }
+        if (typeCount == typeNames.length) {
+            typeNames = Arrays.copyOf(typeNames, typeCount * 2);
+            typeIds = Arrays.copyOf(typeIds, typeCount * 2);
+        }
+        String name = text(bytes, start, end);
+        typeNames[typeCount] = Arrays.copyOfRange(bytes, start, end);
+        // The dictionary holds this list, so the id stays as long as the dictionary (or the list) does
+        ArrayList<Word> words = new ArrayList<>();
+        typeIds[typeCount] = WordTypes.intern(name, words);
+        wordsByType.put(name, words);
+        typeWords.add(words);
+        return typeCount++;
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end, byte b) {
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static String text(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(fileName + ":" + line + ": " + message);
+    }
+}
@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Reloads a lexicon whenever its file changes, without stopping the chatbot.
+ *
+ * A background thread watches the file's directory with a WatchService. Once the file has
+ * changed and then stayed quiet for QUIET_MILLIS (editors often write a file in several
+ * steps), the thread builds a new GraphSnapshot from it with the given loader and hands it
+ * to onReload, which typically swaps it in with ChatService.setSnapshot() or
+ * Chatbot.setSnapshot(). Snapshots are immutable, so replies already being generated
+ * finish on the old one, and nothing waits for the build. If the new file cannot be
+ * loaded (e.g. a malformed row), onError gets the exception and the old snapshot stays.
+ *
+ * The thread runs at low priority, so the build competes as little as possible with the
+ * replies being served. For a fully atomic update, write the new lexicon to a temporary
+ * file in the same directory and rename it over the old one.
+ */
+public final class LexiconWatcher implements AutoCloseable {
+    /** How long the file must go unchanged before it is reloaded. */
+    public static final long QUIET_MILLIS = 250;
+
+    private final Path file;
+    private final Function<String, GraphSnapshot> loader;
+    private final Consumer<GraphSnapshot> onReload;
+    private final Consumer<RuntimeException> onError;
+    private final WatchService watchService;
+    private final Thread thread;
+    private FileTime loadedTime;
+    private long loadedSize;
+
+    /**
+     * Starts watching. The file as it is now counts as loaded, so nothing happens until it changes.
+     *
+     * @param fileName Lexicon file to watch
+     * @param loader Builds a snapshot from the lexicon file (called on the watcher's thread)
+     * @param onReload Receives every snapshot built after a change (called on the watcher's thread)
+     * @param onError Receives the exception when a changed file cannot be loaded
+     * @throws IOException If the file's directory cannot be watched
+     */
+    public LexiconWatcher(String fileName, Function<String, GraphSnapshot> loader,
+                          Consumer<GraphSnapshot> onReload, Consumer<RuntimeException> onError) throws IOException {
+        this.file = Paths.get(fileName).toAbsolutePath();
+        this.loader = loader;
+        this.onReload = onReload;
+        this.onError = onError;
+        watchService = FileSystems.getDefault().newWatchService();
+        try {
+            file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        changed();
+        thread = new Thread(this::watch, "LexiconWatcher " + file.getFileName());
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Stops watching. A reload that is already being built is abandoned.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+        thread.interrupt();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean touched = touches(key);
+                if (!key.reset()) {
+                    return;  // The directory is gone
+                }
+                if (!touched) {
+                    continue;
+                }
+                // Wait until the file has been quiet for a while
+                WatchKey next;
+                while ((next = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    next.pollEvents();
+                    if (!next.reset()) {
+                        return;
+                    }
+                }
+                if (changed()) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    /**
+     * @return Whether the events of the key include the watched file (or may, after an overflow)
+     */
+    private boolean touches(WatchKey key) {
+        boolean touched = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getFileName().equals(event.context())) {
+                touched = true;
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Records the file's modification time and size.
+     *
+     * @return Whether they differ from the ones recorded last, so events that did not change
+     *         the file do not cause a reload
+     */
+    private boolean changed() {
+        FileTime time;
+        long size;
+        try {
+            time = Files.getLastModifiedTime(file);
+            size = Files.size(file);
+        } catch (IOException e) {
+            return false;  // Deleted or being replaced; its creation will come as another event
+        }
+        boolean changed = !time.equals(loadedTime) || size != loadedSize;
+        loadedTime = time;
+        loadedSize = size;
+        return changed;
+    }
+
+    private void reload() {
+        GraphSnapshot snapshot;
+        try {
+            snapshot = loader.apply(file.toString());
+        } catch (RuntimeException e) {
+            onError.accept(e);
+            return;
+        }
+        if (!Thread.currentThread().isInterrupted()) {
+            onReload.accept(snapshot);
+        }
+    }
+}
@@ -0,0 +1,497 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A word graph served straight from the bytes of a compiled graph file, or from the same
+ * bytes in a direct buffer, without keeping anything per vertex or per edge on the heap.
+ *
+ * compile() writes a built graph, along with the type transitions of the grammar it was
+ * built with, into a versioned binary file. map() memory-maps that file, so starting up
+ * costs a few header reads instead of parsing the lexicon and building the graph again,
+ * and JVMs that map the same file share its pages. Every lookup reads the mapped bytes:
+ * successors() hands out runs backed by an IntBuffer view, and the word texts are a
+ * WordArena over the mapped sections, so a text is only decoded when it is asked for.
+ *
+ * Each distinct run of successor ids is stored once, and every vertex points to a list of
+ * (type, run) pairs that is itself shared between vertices with the same successors. Both
+ * the CSR layout (where the same runs repeat from vertex to vertex) and the implicit one
+ * therefore compile to about the size of the vocabulary, plus the edges that really differ.
+ *
+ * offHeap() lays a built graph out in a direct buffer instead of a file. Either way the
+ * graph's vertex records, successor runs and frequencies live outside the Java heap, and
+ * this object is only a handful of buffer views. What the rest of the engine keeps on the
+ * heap (the LexiconIndex, the AliasTables and each session's search buffers) still grows
+ * with the vocabulary, but no longer with the number of edges.
+ *
+ * File layout (little-endian, every section 8-byte aligned): a header with MAGIC, VERSION,
+ * the vertex, type, run, list, list entry, run id, text and lowercase text byte counts, the
+ * edge count and the offset of every section, followed by the sections TYPE_NAMES (length
+ * and UTF-8 bytes of each type), TRANSITIONS (long mask of the types each type may be
+ * followed by), VERTEX_TYPES (byte per vertex), FREQUENCIES, TEXT_OFFSETS, TEXT,
+ * LOWER_OFFSETS, LOWER_TEXT, TEXT_HASHES, LOWER_HASHES (the WordArena), VERTEX_LISTS,
+ * LIST_OFFSETS, LIST_TYPES, LIST_RUNS, RUN_OFFSETS and RUN_IDS (ints). Types are numbered
+ * in the file and mapped to this JVM's WordTypes ids when the file is opened.
+ */
+public final class MappedWordGraph implements WordGraph {
+    private static final int MAGIC = 0x46524757;  // "WGRF"
+    static final int VERSION = 2;
+
+    private static final int TYPE_NAMES = 0;
+    private static final int TRANSITIONS = 1;
+    private static final int VERTEX_TYPES = 2;
+    private static final int FREQUENCIES = 3;
+    private static final int TEXT_OFFSETS = 4;
+    private static final int TEXT = 5;
+    private static final int LOWER_OFFSETS = 6;
+    private static final int LOWER_TEXT = 7;
+    private static final int TEXT_HASHES = 8;
+    private static final int LOWER_HASHES = 9;
+    private static final int VERTEX_LISTS = 10;
+    private static final int LIST_OFFSETS = 11;
+    private static final int LIST_TYPES = 12;
+    private static final int LIST_RUNS = 13;
+    private static final int RUN_OFFSETS = 14;
+    private static final int RUN_IDS = 15;
+    private static final int SECTIONS = 16;
+    private static final int HEADER_SIZE = 48 + 8 * SECTIONS;
+
+    private final int vertexCount;
+    private final long edgeCount;
+    private final long typeMask;
+    private final int[] runtimeTypes;
+    private final int[] fileTypes;
+    private final long[] transitions;
+    private final ByteBuffer vertexTypes;
+    private final IntBuffer frequencies;
+    private final WordArena texts;
+    private final IntBuffer vertexLists;
+    private final IntBuffer listOffsets;
+    private final IntBuffer listTypes;
+    private final IntBuffer listRuns;
+    private final IntBuffer runOffsets;
+    private final IntBuffer runIds;
+
+    /**
+     * @param bytes Graph in the compiled format, from position 0; must not change afterwards
+     * @param name Where the bytes come from, for error messages
+     * @throws IOException If the bytes are not a compiled graph of this version
+     */
+    MappedWordGraph(ByteBuffer bytes, String name) throws IOException {
+        bytes = bytes.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (bytes.limit() < HEADER_SIZE || bytes.getInt(0) != MAGIC) {
+            throw new IOException(name + " is not a compiled word graph");
+        }
+        if (bytes.getInt(4) != VERSION) {
+            throw new IOException(name + " has graph format version " + bytes.getInt(4) + ", expected " + VERSION);
+        }
+        vertexCount = bytes.getInt(8);
+        int typeCount = bytes.getInt(12);
+        edgeCount = bytes.getLong(16);
+        int runCount = bytes.getInt(24);
+        int listCount = bytes.getInt(28);
+        int listEntryCount = bytes.getInt(32);
+        int runIdCount = bytes.getInt(36);
+        int textSize = bytes.getInt(40);
+        int lowerSize = bytes.getInt(44);
+        long[] offsets = new long[SECTIONS];
+        for (int s = 0; s < SECTIONS; s++) {
+            offsets[s] = bytes.getLong(48 + 8 * s);
+        }
+        if (typeCount > WordTypes.MAX_TYPES) {
+            throw new IOException(name + ": too many word types (" + typeCount + ")");
+        }
+
+        runtimeTypes = new int[typeCount];
+        fileTypes = new int[WordTypes.MAX_TYPES];
+        Arrays.fill(fileTypes, -1);
+        long mask = 0;
+        ByteBuffer names = slice(bytes, offsets[TYPE_NAMES], bytes.limit() - offsets[TYPE_NAMES], name);
+        for (int t = 0; t < typeCount; t++) {
+            byte[] typeName = new byte[names.getInt()];
+            names.get(typeName);
+            runtimeTypes[t] = WordTypes.intern(new String(typeName, StandardCharsets.UTF_8), this);
+            fileTypes[runtimeTypes[t]] = t;
+            mask |= WordTypes.mask(runtimeTypes[t]);
+        }
+        typeMask = mask;
+        transitions = new long[typeCount];
+        slice(bytes, offsets[TRANSITIONS], 8L * typeCount, name).asLongBuffer().get(transitions);
+
+        vertexTypes = slice(bytes, offsets[VERTEX_TYPES], vertexCount, name);
+        frequencies = ints(bytes, offsets[FREQUENCIES], vertexCount, name);
+        texts = new WordArena(slice(bytes, offsets[TEXT], textSize, name),
+            ints(bytes, offsets[TEXT_OFFSETS], vertexCount + 1L, name),
+            slice(bytes, offsets[LOWER_TEXT], lowerSize, name),
+            ints(bytes, offsets[LOWER_OFFSETS], vertexCount + 1L, name),
+            ints(bytes, offsets[TEXT_HASHES], vertexCount, name),
+            ints(bytes, offsets[LOWER_HASHES], vertexCount, name));
+        vertexLists = ints(bytes, offsets[VERTEX_LISTS], vertexCount, name);
+        listOffsets = ints(bytes, offsets[LIST_OFFSETS], listCount + 1L, name);
+        listTypes = ints(bytes, offsets[LIST_TYPES], listEntryCount, name);
+        listRuns = ints(bytes, offsets[LIST_RUNS], listEntryCount, name);
+        runOffsets = ints(bytes, offsets[RUN_OFFSETS], runCount + 1L, name);
+        runIds = ints(bytes, offsets[RUN_IDS], runIdCount, name);
+    }
+
+    /**
+     * Memory-maps a file written by compile().
+     *
+     * @throws IOException If the file cannot be read, or is not a compiled graph of this version
+     */
+    public static MappedWordGraph map(String fileName) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(fileName + " is too large to map");
+            }
+            // The mapping stays valid after the channel is closed
+            return new MappedWordGraph(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fileName);
+        }
+    }
+
+    /**
+     * Writes a built graph to a file that map() can serve it from. The file is written
+     * next to its final name and then moved into place, so JVMs that have the old file
+     * mapped keep reading it undisturbed.
+     *
+     * @param graph Built graph
+     * @param grammar Grammar the graph was built with
+     * @param fileName File to write
+     * @throws IOException If the file cannot be written
+     * @throws IllegalArgumentException If the graph takes more than 2 GB
+     */
+    public static void compile(WordGraph graph, SentenceGrammar grammar, String fileName) throws IOException {
+        Layout layout = new Layout(graph, grammar);
+        Path target = Paths.get(fileName);
+        Path temporary = Paths.get(fileName + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, layout.size);
+            layout.write(out);
+            out.force();
+        }
+        Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Copies a built graph into a direct buffer, outside the Java heap. The built graph is
+     * no longer needed afterwards and can be garbage collected.
+     *
+     * @param graph Built graph
+     * @param grammar Grammar the graph was built with
+     * @return The same graph, served from the direct buffer
+     * @throws IllegalArgumentException If the graph takes more than 2 GB
+     */
+    public static MappedWordGraph offHeap(WordGraph graph, SentenceGrammar grammar) {
+        Layout layout = new Layout(graph, grammar);
+        ByteBuffer bytes = ByteBuffer.allocateDirect((int) layout.size);
+        layout.write(bytes);
+        try {
+            return new MappedWordGraph(bytes, "off-heap graph");
+        } catch (IOException e) {
+            throw new IllegalStateException("Off-heap graph is unreadable", e);
+        }
+    }
+
+    /**
+     * @return Whether the graph was compiled with the same type transitions as the given grammar
+     *         (among the types the graph has words of), so the grammar can generate from it
+     */
+    public boolean isBuiltWith(SentenceGrammar grammar) {
+        return Arrays.equals(transitions, Layout.transitions(grammar, runtimeTypes, fileTypes));
+    }
+
+    @Override
+    public int size() {
+        return vertexCount;
+    }
+
+    @Override
+    public long edgeCount() {
+        return edgeCount;
+    }
+
+    @Override
+    public WordArena getTexts() {
+        return texts;
+    }
+
+    @Override
+    public int getTypeId(int id) {
+        return runtimeTypes[vertexTypes.get(id)];
+    }
+
+    @Override
+    public int getFrequency(int id) {
+        return frequencies.get(id);
+    }
+
+    @Override
+    public long getTypeMask() {
+        return typeMask;
+    }
+
+    @Override
+    public SuccessorRun successors(int id, int type, SuccessorRun run) {
+        int fileType = (type < fileTypes.length) ? fileTypes[type] : -1;
+        if (fileType >= 0) {
+            int list = vertexLists.get(id);
+            for (int e = listOffsets.get(list); e < listOffsets.get(list + 1); e++) {
+                if (listTypes.get(e) == fileType) {
+                    int r = listRuns.get(e);
+                    run.set(runIds, runOffsets.get(r), runOffsets.get(r + 1));
+                    return run;
+                }
+            }
+        }
+        run.clear();
+        return run;
+    }
+
+    /**
+     * @return Number of distinct successor runs stored
+     */
+    public int runCount() {
+        return runOffsets.limit() - 1;
+    }
+
+    private static IntBuffer ints(ByteBuffer bytes, long offset, long count, String name) throws IOException {
+        return slice(bytes, offset, 4 * count, name).asIntBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer bytes, long offset, long length, String name) throws IOException {
+        if (offset < HEADER_SIZE || length < 0 || offset + length > bytes.limit()) {
+            throw new IOException(name + " is truncated or corrupt");
+        }
+        ByteBuffer view = bytes.duplicate();
+        view.position((int) offset).limit((int) (offset + length));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The sections of a graph file, gathered from a graph through the WordGraph interface.
+     */
+    private static final class Layout {
+        private final WordGraph graph;
+        private final int[] runtimeTypes;
+        private final int[] fileTypes;
+        private final long[] transitions;
+        private final byte[][] names;
+        private final WordArena texts;
+        private final int[] vertexLists;
+        private int[] listOffsets = new int[16];
+        private int[] listTypes = new int[16];
+        private int[] listRuns = new int[16];
+        private int listCount;
+        private int listEntryCount;
+        private int[] runOffsets = new int[16];
+        private int[] runIds = new int[16];
+        private int runCount;
+        private int runIdCount;
+        private final long[] offsets = new long[SECTIONS];
+        private final long size;
+
+        Layout(WordGraph graph, SentenceGrammar grammar) {
+            this.graph = graph;
+            int typeCount = Long.bitCount(graph.getTypeMask());
+            runtimeTypes = new int[typeCount];
+            fileTypes = new int[WordTypes.MAX_TYPES];
+            Arrays.fill(fileTypes, -1);
+            names = new byte[typeCount][];
+            for (int type = 0, t = 0; type < WordTypes.MAX_TYPES; type++) {
+                if (WordTypes.contains(graph.getTypeMask(), type)) {
+                    runtimeTypes[t] = type;
+                    fileTypes[type] = t;
+                    names[t++] = WordTypes.name(type).getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            transitions = transitions(grammar, runtimeTypes, fileTypes);
+
+            int n = graph.size();
+            texts = graph.getTexts();
+
+            // Runs and lists are interned: same slice first (free), then same contents
+            HashMap<RunKey, Integer> runsBySlice = new HashMap<>();
+            HashMap<RunKey, Integer> runsByIds = new HashMap<>();
+            HashMap<RunKey, Integer> lists = new HashMap<>();
+            SuccessorRun run = new SuccessorRun();
+            int[] entries = new int[2 * typeCount];
+            vertexLists = new int[n];
+            for (int v = 0; v < n; v++) {
+                int length = 0;
+                for (int t = 0; t < typeCount; t++) {
+                    graph.successors(v, runtimeTypes[t], run);
+                    if (run.size() == 0) {
+                        continue;
+                    }
+                    RunKey slice = RunKey.sameSlice(run);
+                    Integer r = runsBySlice.get(slice);
+                    if (r == null) {
+                        RunKey ids = RunKey.sameIds(run);
+                        r = runsByIds.get(ids);
+                        if (r == null) {
+                            r = addRun(run);
+                            runsByIds.put(ids, r);
+                        }
+                        runsBySlice.put(slice, r);
+                    }
+                    entries[length++] = t;
+                    entries[length++] = r;
+                }
+                RunKey key = RunKey.sameInts(entries, length);
+                Integer list = lists.get(key);
+                if (list == null) {
+                    list = addList(entries, length);
+                    lists.put(key, list);
+                }
+                vertexLists[v] = list;
+            }
+
+            long position = HEADER_SIZE;
+            long[] lengths = new long[SECTIONS];
+            for (byte[] name : names) {
+                lengths[TYPE_NAMES] += 4 + name.length;
+            }
+            lengths[TRANSITIONS] = 8L * typeCount;
+            lengths[VERTEX_TYPES] = n;
+            lengths[FREQUENCIES] = 4L * n;
+            lengths[TEXT_OFFSETS] = 4L * (n + 1);
+            lengths[TEXT] = texts.textBytes().remaining();
+            lengths[LOWER_OFFSETS] = 4L * (n + 1);
+            lengths[LOWER_TEXT] = texts.lowerBytes().remaining();
+            lengths[TEXT_HASHES] = 4L * n;
+            lengths[LOWER_HASHES] = 4L * n;
+            lengths[VERTEX_LISTS] = 4L * n;
+            lengths[LIST_OFFSETS] = 4L * (listCount + 1);
+            lengths[LIST_TYPES] = 4L * listEntryCount;
+            lengths[LIST_RUNS] = 4L * listEntryCount;
+            lengths[RUN_OFFSETS] = 4L * (runCount + 1);
+            lengths[RUN_IDS] = 4L * runIdCount;
+            for (int s = 0; s < SECTIONS; s++) {
+                offsets[s] = position;
+                position = (position + lengths[s] + 7) & ~7L;
+            }
+            if (position > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Graph is too large for one buffer (" + position + " bytes)");
+            }
+            size = position;
+        }
+
+        /**
+         * @return Mask of the file types each file type may be followed by in the grammar
+         */
+        static long[] transitions(SentenceGrammar grammar, int[] runtimeTypes, int[] fileTypes) {
+            long[] masks = new long[runtimeTypes.length];
+            for (int[] pair : grammar.transitionPairs()) {
+                int from = (pair[0] < fileTypes.length) ? fileTypes[pair[0]] : -1;
+                int to = (pair[1] < fileTypes.length) ? fileTypes[pair[1]] : -1;
+                if (from >= 0 && to >= 0) {
+                    masks[from] |= WordTypes.mask(to);
+                }
+            }
+            return masks;
+        }
+
+        private int addRun(SuccessorRun run) {
+            if (runCount + 2 > runOffsets.length) {
+                runOffsets = Arrays.copyOf(runOffsets, runOffsets.length * 2);
+            }
+            if (runIdCount + run.size() > runIds.length) {
+                runIds = Arrays.copyOf(runIds, Math.max(runIdCount + run.size(), runIds.length * 2));
+            }
+            for (int i = 0; i < run.size(); i++) {
+                runIds[runIdCount++] = run.get(i);
+            }
+            runOffsets[++runCount] = runIdCount;
+            return runCount - 1;
+        }
+
+        private int addList(int[] entries, int length) {
+            if (listCount + 2 > listOffsets.length) {
+                listOffsets = Arrays.copyOf(listOffsets, listOffsets.length * 2);
+            }
+            if (listEntryCount + length / 2 > listTypes.length) {
+                int capacity = Math.max(listEntryCount + length / 2, listTypes.length * 2);
+                listTypes = Arrays.copyOf(listTypes, capacity);
+                listRuns = Arrays.copyOf(listRuns, capacity);
+            }
+            for (int i = 0; i < length; i += 2) {
+                listTypes[listEntryCount] = entries[i];
+                listRuns[listEntryCount++] = entries[i + 1];
+            }
+            listOffsets[++listCount] = listEntryCount;
+            return listCount - 1;
+        }
+
+        void write(ByteBuffer out) {
+            out.order(ByteOrder.LITTLE_ENDIAN);
+            int n = graph.size();
+            out.putInt(0, MAGIC);
+            out.putInt(4, VERSION);
+            out.putInt(8, n);
+            out.putInt(12, runtimeTypes.length);
+            out.putLong(16, graph.edgeCount());
+            out.putInt(24, runCount);
+            out.putInt(28, listCount);
+            out.putInt(32, listEntryCount);
+            out.putInt(36, runIdCount);
+            out.putInt(40, texts.textBytes().remaining());
+            out.putInt(44, texts.lowerBytes().remaining());
+            for (int s = 0; s < SECTIONS; s++) {
+                out.putLong(48 + 8 * s, offsets[s]);
+            }
+
+            out.position((int) offsets[TYPE_NAMES]);
+            for (byte[] name : names) {
+                out.putInt(name.length).put(name);
+            }
+            out.position((int) offsets[TRANSITIONS]);
+            for (long mask : transitions) {
+                out.putLong(mask);
+            }
+            out.position((int) offsets[VERTEX_TYPES]);
+            for (int v = 0; v < n; v++) {
+                out.put((byte) fileTypes[graph.getTypeId(v)]);
+            }
+            out.position((int) offsets[FREQUENCIES]);
+            for (int v = 0; v < n; v++) {
+                out.putInt(graph.getFrequency(v));
+            }
+            putInts(out, offsets[TEXT_OFFSETS], texts.textOffsets());
+            out.position((int) offsets[TEXT]);
+            out.put(texts.textBytes());
+            putInts(out, offsets[LOWER_OFFSETS], texts.lowerOffsets());
+            out.position((int) offsets[LOWER_TEXT]);
+            out.put(texts.lowerBytes());
+            putInts(out, offsets[TEXT_HASHES], texts.hashes());
+            putInts(out, offsets[LOWER_HASHES], texts.lowerHashes());
+            putInts(out, offsets[VERTEX_LISTS], vertexLists, n);
+            putInts(out, offsets[LIST_OFFSETS], listOffsets, listCount + 1);
+            putInts(out, offsets[LIST_TYPES], listTypes, listEntryCount);
+            putInts(out, offsets[LIST_RUNS], listRuns, listEntryCount);
+            putInts(out, offsets[RUN_OFFSETS], runOffsets, runCount + 1);
+            putInts(out, offsets[RUN_IDS], runIds, runIdCount);
+        }
+
+        private static void putInts(ByteBuffer out, long offset, int[] values, int count) {
+            out.position((int) offset);
+            out.asIntBuffer().put(values, 0, count);
+        }
+
+        private static void putInts(ByteBuffer out, long offset, IntBuffer values) {
+            out.position((int) offset);
+            out.asIntBuffer().put(values);
+        }
+    }
+}
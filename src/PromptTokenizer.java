@@ -0,0 +1,110 @@
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits a prompt into lowercase word tokens and looks each one up in a LexiconIndex.
+ *
+ * Like the original hand-rolled loops, only the letters a-z are kept and tokens are
+ * separated by spaces (so "don't" becomes "dont"). The letters are copied into a reusable
+ * buffer and every token is a [start, end) span of it, along with its lexicon entry.
+ * The buffers only grow when a longer prompt than ever before comes in, so tokenizing
+ * does not allocate per token or per prompt.
+ *
+ * Tokenizing the same prompt object against the same index again is free, which lets
+ * boosting and generation share one pass over each message.
+ */
+public class PromptTokenizer {
+    private char[] letters = new char[64];
+    private CharBuffer lettersView = CharBuffer.wrap(letters);
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] entries = new int[16];
+    private int count;
+
+    private String prompt;
+    private LexiconIndex lexicon;
+
+    /**
+     * Tokenizes the given prompt, unless it is the one that was tokenized last.
+     *
+     * @param prompt User's input message
+     * @param lexicon Index to look the tokens up in
+     * @return Number of tokens
+     */
+    public int tokenize(String prompt, LexiconIndex lexicon) {
+        if (prompt == this.prompt && lexicon == this.lexicon) {
+            return count;
+        }
+        if (letters.length < prompt.length()) {
+            letters = new char[prompt.length()];
+            lettersView = CharBuffer.wrap(letters);
+        }
+
+        count = 0;
+        int length = 0;
+        int start = 0;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = Character.toLowerCase(prompt.charAt(i));
+            if (c >= 'a' && c <= 'z') {
+                letters[length++] = c;
+            } else if (c == ' ') {
+                if (length > start) {
+                    addToken(start, length, lexicon);
+                }
+                start = length;
+            }
+        }
+        if (length > start) {
+            addToken(start, length, lexicon);
+        }
+
+        this.prompt = prompt;
+        this.lexicon = lexicon;
+        return count;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return Lexicon entry of the i-th token, or -1 if it is not a known word
+     */
+    public int entry(int i) {
+        return entries[i];
+    }
+
+    /**
+     * @return Whether the i-th token is exactly the given (lowercase) word
+     */
+    public boolean tokenEquals(int i, String word) {
+        if (ends[i] - starts[i] != word.length()) {
+            return false;
+        }
+        for (int j = 0; j < word.length(); j++) {
+            if (letters[starts[i] + j] != word.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return A copy of the i-th token, for callers that need it as a String
+     */
+    public String token(int i) {
+        return new String(letters, starts[i], ends[i] - starts[i]);
+    }
+
+    private void addToken(int start, int end, LexiconIndex lexicon) {
+        if (count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+            ends = Arrays.copyOf(ends, count * 2);
+            entries = Arrays.copyOf(entries, count * 2);
+        }
+        starts[count] = start;
+        ends[count] = end;
+        entries[count] = lexicon.find(lettersView, start, end);
+        count++;
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Arrays;
+
+/**
+ * Hash key for a run of successor ids, comparing either the slice itself (same array
+ * or buffer, same range) or the ids it holds. Used to share work and storage between
+ * the many (vertex, type) groups that list the same successors.
+ */
+final class RunKey {
+    private final Object source;
+    private final int start;
+    private final int end;
+    private final int[] ids;
+    private final int hash;
+
+    private RunKey(Object source, int start, int end, int[] ids, int hash) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.ids = ids;
+        this.hash = hash;
+    }
+
+    /**
+     * @return Key equal to the keys of the same slice of the same array or buffer (cheap to build)
+     */
+    static RunKey sameSlice(SuccessorRun run) {
+        Object source = run.source();
+        int hash = ((run.size() * 31) + System.identityHashCode(source)) * 31 + run.start;
+        return new RunKey(source, run.start, run.end, null, hash);
+    }
+
+    /**
+     * @return Key equal to the keys of every run with the same ids in the same order (copies them)
+     */
+    static RunKey sameIds(SuccessorRun run) {
+        int[] ids = new int[run.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = run.get(i);
+        }
+        return sameInts(ids, ids.length);
+    }
+
+    /**
+     * @return Key equal to the keys of every run of the same values[0, length) (copies them)
+     */
+    static RunKey sameInts(int[] values, int length) {
+        int[] ids = Arrays.copyOf(values, length);
+        int hash = length;
+        for (int i = 0; i < length; i++) {
+            hash = hash * 31 + ids[i];
+        }
+        return new RunKey(null, 0, length, ids, hash);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RunKey)) {
+            return false;
+        }
+        RunKey other = (RunKey) o;
+        if (ids != null) {
+            return other.ids != null && hash == other.hash && Arrays.equals(ids, other.ids);
+        }
+        return other.ids == null && source == other.source && start == other.start && end == other.end;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * How a sentence is picked once its start word and structure are known.
+ */
+public enum SearchMode {
+    /** Picks the best-scoring word at each position in turn. Fast, but may miss the best sentence. */
+    GREEDY,
+
+    /** Finds the highest-scoring sentence for the structure with dynamic programming (see BestPathSearch). */
+    BEST_PATH,
+
+    /**
+     * Draws each word at random, in proportion to its frequency (see AliasTables), from the
+     * session's random generator. Replies vary between calls unless the generator is seeded.
+     */
+    SAMPLE
+}
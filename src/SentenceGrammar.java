@@ -0,0 +1,161 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The sentence patterns a chatbot generates with, compiled into a TypeAutomaton.
+ *
+ * A pattern is a list of word types, one slot each. A type name may end with '?' (the
+ * slot is optional), '*' (any number of words of that type) or '+' (one or more), e.g.
+ * "Subject Auxiliary? Verb Adverb*". The automaton of all patterns drives graph
+ * construction (its transition pairs are the edges between types) and generation in
+ * every-structure mode, while each pattern's own automaton is used when a start word
+ * picks a single pattern. Sentences never get longer than MAX_SENTENCE_LENGTH words.
+ *
+ * Grammar files have one pattern per line, with slots separated by spaces or commas.
+ * Blank lines and anything after a '#' are ignored.
+ */
+public final class SentenceGrammar {
+    /** Longest sentence generated, which bounds repeated slots. */
+    public static final int MAX_SENTENCE_LENGTH = 12;
+
+    private final int[][] types;
+    private final TypeAutomaton automaton;
+    private final TypeAutomaton[] patterns;
+
+    /**
+     * @param types Slot types of each pattern
+     * @param modes Slot modes of each pattern: ' ' (exactly one word), '?', '*' or '+'
+     */
+    public SentenceGrammar(int[][] types, char[][] modes) {
+        if (types.length == 0) {
+            throw new IllegalArgumentException("A grammar needs at least one pattern");
+        }
+        this.types = types;
+        this.automaton = TypeAutomaton.compile(types, modes);
+        this.patterns = new TypeAutomaton[types.length];
+        for (int p = 0; p < types.length; p++) {
+            patterns[p] = TypeAutomaton.compile(new int[][] {types[p]}, new char[][] {modes[p]});
+        }
+        long typeMask = 0;
+        for (int[] pattern : types) {
+            for (int type : pattern) {
+                typeMask |= WordTypes.mask(type);
+            }
+        }
+        WordTypes.use(this, typeMask);
+    }
+
+    /**
+     * @param structures Sentence structures as type ids, with exactly one word per slot
+     */
+    public static SentenceGrammar of(int[][] structures) {
+        char[][] modes = new char[structures.length][];
+        for (int p = 0; p < structures.length; p++) {
+            modes[p] = new char[structures[p].length];
+            Arrays.fill(modes[p], ' ');
+        }
+        return new SentenceGrammar(structures, modes);
+    }
+
+    /**
+     * @param structures Sentence structures as type names, which may end with '?', '*' or '+'
+     */
+    public static SentenceGrammar of(String[][] structures) {
+        int[][] types = new int[structures.length][];
+        char[][] modes = new char[structures.length][];
+        for (int p = 0; p < structures.length; p++) {
+            types[p] = new int[structures[p].length];
+            modes[p] = new char[structures[p].length];
+            for (int i = 0; i < structures[p].length; i++) {
+                parseSlot(structures[p][i], types[p], modes[p], i, "pattern " + (p + 1));
+            }
+        }
+        return new SentenceGrammar(types, modes);
+    }
+
+    /**
+     * Reads a grammar file (see the class comment for its format).
+     *
+     * @param fileName Grammar file to read
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If a line is malformed, naming the file and line
+     */
+    public static SentenceGrammar load(String fileName) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+        ArrayList<int[]> types = new ArrayList<>();
+        ArrayList<char[]> modes = new ArrayList<>();
+        for (int l = 0; l < lines.size(); l++) {
+            String line = lines.get(l);
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] slots = line.split("[\\s,]+");
+            int[] slotTypes = new int[slots.length];
+            char[] slotModes = new char[slots.length];
+            for (int i = 0; i < slots.length; i++) {
+                parseSlot(slots[i], slotTypes, slotModes, i, fileName + ":" + (l + 1));
+            }
+            types.add(slotTypes);
+            modes.add(slotModes);
+        }
+        if (types.isEmpty()) {
+            throw new IllegalArgumentException(fileName + ": no sentence patterns");
+        }
+        return new SentenceGrammar(types.toArray(new int[0][]), modes.toArray(new char[0][]));
+    }
+
+    /**
+     * Parses one slot ("Noun", "Adverb?", ...) into types[i] and modes[i].
+     *
+     * @param where Location for error messages
+     */
+    private static void parseSlot(String slot, int[] types, char[] modes, int i, String where) {
+        char last = slot.isEmpty() ? ' ' : slot.charAt(slot.length() - 1);
+        char mode = (last == '?' || last == '*' || last == '+') ? last : ' ';
+        String name = (mode == ' ') ? slot : slot.substring(0, slot.length() - 1);
+        if (name.isEmpty() || !Character.isLetter(name.charAt(0))) {
+            throw new IllegalArgumentException(where + ": bad slot \"" + slot + "\"");
+        }
+        types[i] = WordTypes.intern(name, types);
+        modes[i] = mode;
+    }
+
+    /**
+     * @return Number of patterns
+     */
+    public int patternCount() {
+        return types.length;
+    }
+
+    /**
+     * @return Automaton accepting the sentences of every pattern
+     */
+    public TypeAutomaton automaton() {
+        return automaton;
+    }
+
+    /**
+     * @return Automaton accepting the sentences of the given pattern only
+     */
+    public TypeAutomaton pattern(int pattern) {
+        return patterns[pattern];
+    }
+
+    /**
+     * @return Every pair of types that can follow each other in a sentence, as {from, to}
+     *         arrays; WordGraphBuilder takes them as two-word structures
+     */
+    public int[][] transitionPairs() {
+        return automaton.transitionPairs();
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.Arrays;
+
+/**
+ * A TypeAutomaton unrolled by sentence position, for decoding.
+ *
+ * Each node is a (position, automaton state) pair: node 0 stands for the start word, and
+ * a node at position i holds the i-th word after it. Every automaton transition from a
+ * node's state adds an edge (labeled with the word type) to the node for the target state
+ * one position further. Patterns sharing a prefix or a suffix share states, and so share
+ * nodes: decoders visit each node once per request, so the work grows with the distinct
+ * transitions of the patterns rather than with their number. Nodes from which no sentence
+ * can be completed are left out, and nodes are numbered by position.
+ *
+ * In-edges and out-edges are stored per node in flat arrays, so decoders read them
+ * without allocating.
+ */
+public final class SentenceLattice {
+    private final int[] depths;
+    private final boolean[] accepting;
+    private final int[] edgeStarts;
+    private final int[] edgeFrom;
+    private final int[] edgeTypes;
+    private final int[] edgeTo;
+    private final int[] outStarts;
+    private final int[] outEdges;
+    private final int[] firstTypes;
+
+    /**
+     * @param automaton Sentences to unroll
+     * @param startType Type of the start word
+     * @param maxLength Longest sentence, in words
+     * @param firstType Only keep sentences whose second word has this type, or -1 for all
+     */
+    public SentenceLattice(TypeAutomaton automaton, int startType, int maxLength, int firstType) {
+        int typeCount = WordTypes.count();
+        int limit = 1 + Math.max(0, maxLength - 1) * automaton.stateCount();
+        int[] states = new int[limit];
+        int[] nodeDepths = new int[limit];
+        int[] from = new int[16];
+        int[] to = new int[16];
+        int[] labels = new int[16];
+        int edges = 0;
+
+        states[0] = automaton.next(0, startType);
+        int size = 1;
+        int[] layerNodes = new int[automaton.stateCount()];
+        Arrays.fill(layerNodes, -1);
+        for (int depth = 1, layerStart = 0, layerEnd = 1; depth < maxLength && layerStart < layerEnd; depth++) {
+            for (int n = layerStart; n < layerEnd; n++) {
+                if (states[n] < 0) {
+                    continue;
+                }
+                for (int type = 0; type < typeCount; type++) {
+                    int target = automaton.next(states[n], type);
+                    if (target < 0 || (depth == 1 && firstType >= 0 && type != firstType)) {
+                        continue;
+                    }
+                    if (layerNodes[target] < 0) {
+                        layerNodes[target] = size;
+                        states[size] = target;
+                        nodeDepths[size++] = depth;
+                    }
+                    if (edges == from.length) {
+                        from = Arrays.copyOf(from, edges * 2);
+                        to = Arrays.copyOf(to, edges * 2);
+                        labels = Arrays.copyOf(labels, edges * 2);
+                    }
+                    from[edges] = n;
+                    to[edges] = layerNodes[target];
+                    labels[edges++] = type;
+                }
+            }
+            for (int n = layerEnd; n < size; n++) {
+                layerNodes[states[n]] = -1;
+            }
+            layerStart = layerEnd;
+            layerEnd = size;
+        }
+
+        // Keep the nodes a complete sentence can go through; edges come sorted by source, so
+        // walking them backwards sees every edge out of a node before the edges into it
+        boolean[] useful = new boolean[size];
+        for (int n = 0; n < size; n++) {
+            useful[n] = states[n] >= 0 && automaton.isAccepting(states[n]);
+        }
+        for (int e = edges - 1; e >= 0; e--) {
+            useful[from[e]] |= useful[to[e]];
+        }
+        useful[0] = true;
+        int[] numbers = new int[size];
+        int kept = 0;
+        for (int n = 0; n < size; n++) {
+            numbers[n] = useful[n] ? kept++ : -1;
+        }
+
+        depths = new int[kept];
+        accepting = new boolean[kept];
+        edgeStarts = new int[kept + 1];
+        for (int n = 0; n < size; n++) {
+            if (useful[n]) {
+                depths[numbers[n]] = nodeDepths[n];
+                accepting[numbers[n]] = states[n] >= 0 && automaton.isAccepting(states[n]);
+            }
+        }
+        int keptEdges = 0;
+        for (int e = 0; e < edges; e++) {
+            if (useful[to[e]]) {
+                edgeStarts[numbers[to[e]] + 1]++;
+                keptEdges++;
+            }
+        }
+        for (int n = 0; n < kept; n++) {
+            edgeStarts[n + 1] += edgeStarts[n];
+        }
+        edgeFrom = new int[keptEdges];
+        edgeTypes = new int[keptEdges];
+        edgeTo = new int[keptEdges];
+        outStarts = new int[kept + 1];
+        int[] fill = Arrays.copyOf(edgeStarts, kept);
+        long rootTypes = 0;
+        for (int e = 0; e < edges; e++) {
+            if (useful[to[e]]) {
+                int slot = fill[numbers[to[e]]]++;
+                edgeFrom[slot] = numbers[from[e]];
+                edgeTypes[slot] = labels[e];
+                edgeTo[slot] = numbers[to[e]];
+                outStarts[numbers[from[e]] + 1]++;
+                if (from[e] == 0) {
+                    rootTypes |= WordTypes.mask(labels[e]);
+                }
+            }
+        }
+        // The same edges, grouped by source node
+        for (int n = 0; n < kept; n++) {
+            outStarts[n + 1] += outStarts[n];
+        }
+        outEdges = new int[keptEdges];
+        fill = Arrays.copyOf(outStarts, kept);
+        for (int e = 0; e < keptEdges; e++) {
+            outEdges[fill[edgeFrom[e]]++] = e;
+        }
+        firstTypes = new int[Long.bitCount(rootTypes)];
+        for (int type = 0, i = 0; i < firstTypes.length; type++) {
+            if (WordTypes.contains(rootTypes, type)) {
+                firstTypes[i++] = type;
+            }
+        }
+    }
+
+    /**
+     * @return Number of nodes, including node 0 (the start word)
+     */
+    public int size() {
+        return depths.length;
+    }
+
+    /**
+     * @return Position of the node's word in the sentence (0 for the start word)
+     */
+    public int depth(int node) {
+        return depths[node];
+    }
+
+    /**
+     * @return Whether a sentence may end with the node's word
+     */
+    public boolean isAccepting(int node) {
+        return accepting[node];
+    }
+
+    /**
+     * @return Index of the node's first in-edge; its in-edges run up to edgeStart(node + 1)
+     */
+    public int edgeStart(int node) {
+        return edgeStarts[node];
+    }
+
+    /**
+     * @return Node the edge comes from, which always precedes the node it leads to
+     */
+    public int edgeFrom(int edge) {
+        return edgeFrom[edge];
+    }
+
+    /**
+     * @return Word type of the edge's target word
+     */
+    public int edgeType(int edge) {
+        return edgeTypes[edge];
+    }
+
+    /**
+     * @return Node the edge leads to
+     */
+    public int edgeTo(int edge) {
+        return edgeTo[edge];
+    }
+
+    /**
+     * @return Index of the node's first out-edge in outEdge(); they run up to outStart(node + 1)
+     */
+    public int outStart(int node) {
+        return outStarts[node];
+    }
+
+    /**
+     * @return The i-th out-edge, as an edge index for edgeType() and edgeTo()
+     */
+    public int outEdge(int i) {
+        return outEdges[i];
+    }
+
+    /**
+     * @return Types of the word after the start word, one per independent branch of the lattice
+     */
+    public int[] firstTypes() {
+        return firstTypes.clone();
+    }
+}
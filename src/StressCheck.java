@@ -0,0 +1,94 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks that ChatService gives the same replies under concurrent load as on a single thread.
+ *
+ * Each thread serves its own share of the sessions, one prompt after another, while a
+ * second service replays the same conversations on the calling thread. The replies are
+ * compared for every search mode (SAMPLE with a fixed seed), for every-structure mode,
+ * and with decaying boosts, which make each reply depend on the earlier messages of its
+ * session. Exits with status 1 at the first difference.
+ *
+ * Usage: java StressCheck [lexicon.csv] [threads] [replies per thread] [sessions]
+ */
+public class StressCheck {
+
+    public static void main(String[] args) throws Exception {
+        String fileName = (args.length > 0) ? args[0] : Driver.FILENAME;
+        int threads = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        int replies = (args.length > 2) ? Integer.parseInt(args[2]) : 2000;
+        int sessions = (args.length > 3) ? Integer.parseInt(args[3]) : 300;
+
+        Chatbot chat = new Chatbot();
+        chat.buildWordGraph(chat.buildDictionary(fileName));
+        GraphSnapshot snapshot = chat.getSnapshot();
+        String[] prompts = Benchmark.randomPrompts(snapshot.getGraph(), threads * replies, new Random(9));
+        StdOut.printf("%d threads x %d replies over %d sessions%n", threads, replies, sessions);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            for (SearchMode mode : SearchMode.values()) {
+                check(pool, snapshot, mode, false, 0, prompts, threads, sessions);
+            }
+            check(pool, snapshot, SearchMode.BEST_PATH, true, 0, prompts, threads, sessions);
+            check(pool, snapshot, SearchMode.GREEDY, false, 0.5, prompts, threads, sessions);
+        } finally {
+            pool.shutdown();
+        }
+        StdOut.println("OK: concurrent replies match single-threaded ones");
+    }
+
+    private static void check(ExecutorService pool, GraphSnapshot snapshot, SearchMode mode, boolean allStructures,
+                              double decay, String[] prompts, int threads, int sessions) throws Exception {
+        ChatService concurrent = service(snapshot, mode, allStructures, decay);
+        ChatService single = service(snapshot, mode, allStructures, decay);
+        int replies = prompts.length / threads;
+
+        ArrayList<Future<String[]>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            results.add(pool.submit(() -> converse(concurrent, prompts, thread, threads, replies, sessions)));
+        }
+        String label = (allStructures ? "ALL/" : "") + mode + (decay > 0 ? " decay " + decay : "");
+        for (int t = 0; t < threads; t++) {
+            String[] expected = converse(single, prompts, t, threads, replies, sessions);
+            String[] actual = results.get(t).get();
+            for (int i = 0; i < replies; i++) {
+                if (!expected[i].equals(actual[i])) {
+                    StdOut.printf("FAILED %s: \"%s\" got \"%s\", expected \"%s\"%n", label,
+                        prompts[t * replies + i], actual[i], expected[i]);
+                    System.exit(1);
+                }
+            }
+        }
+        StdOut.printf("%-20s %d replies match%n", label, prompts.length);
+    }
+
+    private static ChatService service(GraphSnapshot snapshot, SearchMode mode, boolean allStructures, double decay) {
+        ChatService service = new ChatService(snapshot, mode);
+        service.setRandomSeed(42);
+        service.setBoostDecay(decay);
+        service.setTryAllStructures(allStructures, 1_000_000);
+        return service;
+    }
+
+    /**
+     * Sends the prompts of one thread in order, to the sessions that belong to that thread.
+     *
+     * @return The replies, in order
+     */
+    private static String[] converse(ChatService service, String[] prompts, int thread, int threads,
+                                     int replies, int sessions) {
+        int ownSessions = Math.max(1, (sessions - thread + threads - 1) / threads);
+        String[] out = new String[replies];
+        for (int i = 0; i < replies; i++) {
+            String sessionId = "session" + (thread + threads * (i % ownSessions));
+            out[i] = service.generate(sessionId, prompts[thread * replies + i]);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,57 @@
+import java.nio.IntBuffer;
+
+/**
+ * A contiguous run of successor vertex ids: ids[start] up to ids[end - 1], or the same
+ * range of an IntBuffer for graphs kept outside the heap (see MappedWordGraph).
+ *
+ * Graphs fill a caller-owned run instead of returning a new array, so walking
+ * the successors of a vertex does not allocate.
+ */
+public class SuccessorRun {
+    private static final int[] EMPTY = new int[0];
+
+    int[] ids;
+    IntBuffer buffer;
+    int start;
+    int end;
+
+    public SuccessorRun() {
+        clear();
+    }
+
+    void set(int[] ids, int start, int end) {
+        this.ids = ids;
+        this.buffer = null;
+        this.start = start;
+        this.end = end;
+    }
+
+    void set(IntBuffer buffer, int start, int end) {
+        this.ids = null;
+        this.buffer = buffer;
+        this.start = start;
+        this.end = end;
+    }
+
+    void clear() {
+        set(EMPTY, 0, 0);
+    }
+
+    public int size() {
+        return end - start;
+    }
+
+    /**
+     * @return The i-th successor id of this run
+     */
+    public int get(int i) {
+        return (ids != null) ? ids[start + i] : buffer.get(start + i);
+    }
+
+    /**
+     * @return The array or buffer holding the run, so runs can be compared by identity
+     */
+    Object source() {
+        return (ids != null) ? ids : buffer;
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/**
+ * A minimal deterministic automaton over word type ids, accepting the type sequences
+ * of a set of sentence patterns.
+ *
+ * Each pattern is a list of slots, and a slot can be plain (exactly one word of its type),
+ * optional ('?'), repeated ('*', any number) or required and repeated ('+'). The patterns
+ * are compiled together by subset construction and then minimized, so patterns sharing a
+ * prefix or a suffix share states, and the automaton grows with the distinct transitions
+ * of the patterns rather than with their number. State 0 is the start state.
+ */
+public final class TypeAutomaton {
+    private final int[][] next;
+    private final boolean[] accepting;
+
+    private TypeAutomaton(int[][] next, boolean[] accepting) {
+        this.next = next;
+        this.accepting = accepting;
+    }
+
+    public int stateCount() {
+        return next.length;
+    }
+
+    /**
+     * @return State reached from the given one by a word of the given type, or -1 if no pattern allows it
+     */
+    public int next(int state, int type) {
+        return (type < next[state].length) ? next[state][type] : -1;
+    }
+
+    /**
+     * @return Whether a sentence may end in this state
+     */
+    public boolean isAccepting(int state) {
+        return accepting[state];
+    }
+
+    /**
+     * Lists every pair of types that can follow each other in an accepted sentence, once.
+     *
+     * @return The pairs as {from, to} arrays
+     */
+    public int[][] transitionPairs() {
+        long[] inTypes = new long[next.length];
+        for (int state = 0; state < next.length; state++) {
+            for (int type = 0; type < next[state].length; type++) {
+                if (next[state][type] >= 0) {
+                    inTypes[next[state][type]] |= WordTypes.mask(type);
+                }
+            }
+        }
+        // Distinct pairs, in order of first appearance (states are numbered breadth-first)
+        long[] seen = new long[WordTypes.MAX_TYPES];
+        ArrayList<int[]> pairs = new ArrayList<>();
+        for (int state = 0; state < next.length; state++) {
+            for (int from = 0; from < WordTypes.MAX_TYPES; from++) {
+                if (!WordTypes.contains(inTypes[state], from)) {
+                    continue;
+                }
+                for (int to = 0; to < next[state].length; to++) {
+                    if (next[state][to] >= 0 && !WordTypes.contains(seen[from], to)) {
+                        seen[from] |= WordTypes.mask(to);
+                        pairs.add(new int[] {from, to});
+                    }
+                }
+            }
+        }
+        return pairs.toArray(new int[0][]);
+    }
+
+    /**
+     * Compiles sentence patterns into a minimal automaton.
+     *
+     * @param types Slot types of each pattern
+     * @param modes Slot modes of each pattern: ' ', '?', '*' or '+'
+     */
+    public static TypeAutomaton compile(int[][] types, char[][] modes) {
+        // Nondeterministic states: (pattern, position), where position = slots matched so far
+        int[] firstState = new int[types.length + 1];
+        for (int p = 0; p < types.length; p++) {
+            firstState[p + 1] = firstState[p] + types[p].length + 1;
+        }
+        int typeCount = WordTypes.count();
+
+        BitSet start = new BitSet();
+        for (int p = 0; p < types.length; p++) {
+            start.set(firstState[p]);
+        }
+        ArrayList<BitSet> subsets = new ArrayList<>();
+        HashMap<BitSet, Integer> subsetIds = new HashMap<>();
+        ArrayList<int[]> transitions = new ArrayList<>();
+        ArrayList<Boolean> accepts = new ArrayList<>();
+        subsets.add(start);
+        subsetIds.put(start, 0);
+
+        for (int d = 0; d < subsets.size(); d++) {
+            BitSet subset = subsets.get(d);
+            BitSet[] targets = new BitSet[typeCount];
+            boolean accepting = false;
+            for (int p = 0; p < types.length; p++) {
+                int length = types[p].length;
+                for (int i = subset.nextSetBit(firstState[p]); i >= 0 && i < firstState[p + 1]; i = subset.nextSetBit(i + 1)) {
+                    int position = i - firstState[p];
+                    // Repeat the slot just matched
+                    if (position > 0 && isRepeated(modes[p][position - 1])) {
+                        add(targets, types[p][position - 1], i);
+                    }
+                    // Match the next slot, or any later one if the slots in between can be skipped
+                    int j = position;
+                    while (j < length) {
+                        add(targets, types[p][j], firstState[p] + j + 1);
+                        if (!isOptional(modes[p][j])) {
+                            break;
+                        }
+                        j++;
+                    }
+                    accepting |= j == length;
+                }
+            }
+
+            int[] row = new int[typeCount];
+            for (int type = 0; type < typeCount; type++) {
+                if (targets[type] == null) {
+                    row[type] = -1;
+                    continue;
+                }
+                Integer id = subsetIds.get(targets[type]);
+                if (id == null) {
+                    id = subsets.size();
+                    subsets.add(targets[type]);
+                    subsetIds.put(targets[type], id);
+                }
+                row[type] = id;
+            }
+            transitions.add(row);
+            accepts.add(accepting);
+        }
+
+        boolean[] accepting = new boolean[accepts.size()];
+        for (int s = 0; s < accepting.length; s++) {
+            accepting[s] = accepts.get(s);
+        }
+        return minimize(transitions.toArray(new int[0][]), accepting);
+    }
+
+    private static boolean isOptional(char mode) {
+        return mode == '?' || mode == '*';
+    }
+
+    private static boolean isRepeated(char mode) {
+        return mode == '*' || mode == '+';
+    }
+
+    private static void add(BitSet[] targets, int type, int state) {
+        if (targets[type] == null) {
+            targets[type] = new BitSet();
+        }
+        targets[type].set(state);
+    }
+
+    /**
+     * Drops the states from which no sentence can be completed, then merges equivalent
+     * states by partition refinement (Moore's algorithm), and numbers the result
+     * breadth-first from the start state.
+     */
+    private static TypeAutomaton minimize(int[][] next, boolean[] accepting) {
+        int n = next.length;
+        int typeCount = (n == 0) ? 0 : next[0].length;
+
+        // Live states: an accepting state is reachable from them
+        boolean[] live = accepting.clone();
+        for (boolean changed = true; changed; ) {
+            changed = false;
+            for (int s = 0; s < n; s++) {
+                for (int t = 0; t < typeCount && !live[s]; t++) {
+                    if (next[s][t] >= 0 && live[next[s][t]]) {
+                        live[s] = true;
+                        changed = true;
+                    }
+                }
+            }
+        }
+
+        int[] classes = new int[n];
+        for (int s = 0; s < n; s++) {
+            classes[s] = live[s] ? (accepting[s] ? 1 : 0) : -1;
+        }
+        int classCount = 0;
+        for (boolean changed = true; changed; ) {
+            HashMap<String, Integer> signatures = new HashMap<>();
+            int[] refined = new int[n];
+            for (int s = 0; s < n; s++) {
+                if (!live[s]) {
+                    refined[s] = -1;
+                    continue;
+                }
+                int[] signature = new int[typeCount + 1];
+                signature[0] = classes[s];
+                for (int t = 0; t < typeCount; t++) {
+                    signature[t + 1] = (next[s][t] >= 0 && live[next[s][t]]) ? classes[next[s][t]] : -1;
+                }
+                String key = Arrays.toString(signature);
+                Integer id = signatures.get(key);
+                if (id == null) {
+                    id = signatures.size();
+                    signatures.put(key, id);
+                }
+                refined[s] = id;
+            }
+            changed = signatures.size() != classCount;
+            classCount = signatures.size();
+            classes = refined;
+        }
+
+        if (n == 0 || !live[0]) {
+            // No pattern can be completed: a single state with no transitions
+            int[] none = new int[typeCount];
+            Arrays.fill(none, -1);
+            return new TypeAutomaton(new int[][] {none}, new boolean[1]);
+        }
+
+        // Number the classes breadth-first from the start state's class
+        int[] numbers = new int[classCount];
+        Arrays.fill(numbers, -1);
+        int[] representatives = new int[classCount];
+        int count = 0;
+        numbers[classes[0]] = count;
+        representatives[count++] = 0;
+        for (int i = 0; i < count; i++) {
+            int s = representatives[i];
+            for (int t = 0; t < typeCount; t++) {
+                int target = next[s][t];
+                if (target >= 0 && live[target] && numbers[classes[target]] < 0) {
+                    numbers[classes[target]] = count;
+                    representatives[count++] = target;
+                }
+            }
+        }
+
+        int[][] minimalNext = new int[count][typeCount];
+        boolean[] minimalAccepting = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            int s = representatives[i];
+            minimalAccepting[i] = accepting[s];
+            for (int t = 0; t < typeCount; t++) {
+                int target = next[s][t];
+                minimalNext[i][t] = (target >= 0 && live[target]) ? numbers[classes[target]] : -1;
+            }
+        }
+        return new TypeAutomaton(minimalNext, minimalAccepting);
+    }
+}
@@ -1,14 +1,27 @@
 public class Word {
     private String text;
     private int frequency;
-    private String type;
+    private int typeId;
     private Word next;
+    private int id;
 
     public Word(String text, int frequency, String type) {
         this.text = text;
         this.frequency = frequency;
-        this.type = type;
+        this.typeId = WordTypes.intern(type);
         this.next = null;
+        this.id = -1;
+    }
+
+    /**
+     * @param typeId Type id already interned with WordTypes.intern()
+     */
+    public Word(String text, int frequency, int typeId) {
+        this.text = text;
+        this.frequency = frequency;
+        this.typeId = typeId;
+        this.next = null;
+        this.id = -1;
     }
 
     @Override
@@ -41,7 +54,14 @@ public class Word {
     }
     
     public String getType() {
-        return type;
+        return WordTypes.name(typeId);
+    }
+
+    /**
+     * @return Interned id of this word's type (see WordTypes)
+     */
+    public int getTypeId() {
+        return typeId;
     }
     
     public Word getNext() {
@@ -51,4 +71,15 @@ public class Word {
     public void setNext(Word next) {
         this.next = next;
     }
+
+    /**
+     * @return Vertex id of this word in the word graph, or -1 if it has not been added to one
+     */
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 }
@@ -0,0 +1,274 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The texts of every word of a graph, indexed by vertex id, stored once in contiguous
+ * UTF-8 bytes instead of as one String per word.
+ *
+ * The text of word id is text[offsets[id], offsets[id + 1]). Next to it the arena keeps the
+ * lowercase form of every text (in the same layout) and two precomputed hashes: hash(id),
+ * which equals getText(id).hashCode(), and lowerHash(id), the case-insensitive hash that
+ * LexiconIndex looks words up by. A word then costs its bytes plus four ints, and comparing
+ * a prompt token with a word is a byte comparison that never builds a String.
+ *
+ * The sections are plain buffers, so an arena can be built on the heap (of()) or be a view
+ * of a compiled graph file (see MappedWordGraph).
+ */
+public final class WordArena {
+    private final ByteBuffer text;
+    private final IntBuffer offsets;
+    private final ByteBuffer lower;
+    private final IntBuffer lowerOffsets;
+    private final IntBuffer hashes;
+    private final IntBuffer lowerHashes;
+    /** Arrays behind lower and lowerOffsets when they are on the heap (for faster comparisons), else null. */
+    private final byte[] lowerArray;
+    private final int[] lowerOffsetArray;
+
+    /**
+     * @param text UTF-8 bytes of every text, in id order
+     * @param offsets Start of every text in text, plus its end, so one more than the word count
+     * @param lower UTF-8 bytes of every lowercase text (see lowerCase()), in id order
+     * @param lowerOffsets Start of every lowercase text in lower, plus its end
+     * @param hashes String.hashCode() of every text
+     * @param lowerHashes lowerHash() of every text
+     */
+    WordArena(ByteBuffer text, IntBuffer offsets, ByteBuffer lower, IntBuffer lowerOffsets,
+              IntBuffer hashes, IntBuffer lowerHashes) {
+        this.text = text;
+        this.offsets = offsets;
+        this.lower = lower;
+        this.lowerOffsets = lowerOffsets;
+        this.hashes = hashes;
+        this.lowerHashes = lowerHashes;
+        boolean onHeap = lower.hasArray() && lower.arrayOffset() == 0 && lowerOffsets.hasArray() && lowerOffsets.arrayOffset() == 0;
+        this.lowerArray = onHeap ? lower.array() : null;
+        this.lowerOffsetArray = onHeap ? lowerOffsets.array() : null;
+    }
+
+    /**
+     * @param words Words in id order
+     * @return Arena holding the texts of the words
+     * @throws IllegalArgumentException If the texts take more than 2 GB
+     */
+    public static WordArena of(Word[] words) {
+        int n = words.length;
+        byte[][] texts = new byte[n][];
+        byte[][] lowers = new byte[n][];
+        int[] hashes = new int[n];
+        int[] lowerHashes = new int[n];
+        long textSize = 0;
+        long lowerSize = 0;
+        for (int v = 0; v < n; v++) {
+            String text = words[v].getText();
+            String lowerText = lowerCase(text);
+            texts[v] = text.getBytes(StandardCharsets.UTF_8);
+            // Most words are lowercase already and need not be encoded twice
+            lowers[v] = lowerText.equals(text) ? texts[v] : lowerText.getBytes(StandardCharsets.UTF_8);
+            hashes[v] = text.hashCode();
+            lowerHashes[v] = lowerHash(text, 0, text.length());
+            textSize += texts[v].length;
+            lowerSize += lowers[v].length;
+        }
+        if (textSize > Integer.MAX_VALUE || lowerSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Word texts take more than 2 GB");
+        }
+        int[] offsets = new int[n + 1];
+        int[] lowerOffsets = new int[n + 1];
+        byte[] text = pack(texts, (int) textSize, offsets);
+        byte[] lower = pack(lowers, (int) lowerSize, lowerOffsets);
+        return new WordArena(ByteBuffer.wrap(text), IntBuffer.wrap(offsets), ByteBuffer.wrap(lower),
+            IntBuffer.wrap(lowerOffsets), IntBuffer.wrap(hashes), IntBuffer.wrap(lowerHashes));
+    }
+
+    /**
+     * @return Number of words
+     */
+    public int size() {
+        return hashes.limit();
+    }
+
+    /**
+     * @return Text of the given word, decoded into a new String
+     */
+    public String getText(int id) {
+        int start = offsets.get(id);
+        byte[] utf8 = new byte[offsets.get(id + 1) - start];
+        text.get(start, utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Appends the text of the given word, decoding it straight into the builder when it is ASCII.
+     */
+    public void appendText(int id, StringBuilder out) {
+        int start = offsets.get(id);
+        int end = offsets.get(id + 1);
+        for (int i = start; i < end; i++) {
+            if (text.get(i) < 0) {
+                out.append(getText(id));
+                return;
+            }
+        }
+        for (int i = start; i < end; i++) {
+            out.append((char) text.get(i));
+        }
+    }
+
+    /**
+     * @return getText(id).hashCode(), without decoding the text
+     */
+    public int hash(int id) {
+        return hashes.get(id);
+    }
+
+    /**
+     * @return lowerHash() of the text of the given word
+     */
+    public int lowerHash(int id) {
+        return lowerHashes.get(id);
+    }
+
+    /**
+     * @return Whether the two words have the same text, ignoring case
+     */
+    public boolean equalsIgnoreCase(int id, int other) {
+        if (lowerHashes.get(id) != lowerHashes.get(other)) {
+            return false;
+        }
+        int start = lowerOffsets.get(id);
+        int length = lowerOffsets.get(id + 1) - start;
+        int otherStart = lowerOffsets.get(other);
+        if (lowerOffsets.get(other + 1) - otherStart != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (lower.get(start + i) != lower.get(otherStart + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the bytes of the lowercase form; callers that hash their text anyway can
+     * compare lowerHash() first to skip most mismatches.
+     *
+     * @return Whether the word's text is text[start, end), ignoring case
+     */
+    public boolean equalsIgnoreCase(int id, CharSequence text, int start, int end) {
+        if (lowerArray != null) {
+            return equalsIgnoreCase(lowerArray, lowerOffsetArray[id], lowerOffsetArray[id + 1], text, start, end);
+        }
+        int p = lowerOffsets.get(id);
+        int pEnd = lowerOffsets.get(id + 1);
+        for (int i = start; i < end; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (c >= 0x80) {
+                return equalsLowerBytes(p, pEnd, lowerCase(text.subSequence(i, end).toString()));
+            }
+            if (p == pEnd || lower.get(p++) != c) {
+                return false;
+            }
+        }
+        return p == pEnd;
+    }
+
+    /**
+     * Same as above, for a heap arena.
+     */
+    private boolean equalsIgnoreCase(byte[] lower, int p, int pEnd, CharSequence text, int start, int end) {
+        if (pEnd - p < end - start) {
+            // Every char takes at least one byte
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            if (c >= 0x80) {
+                return equalsLowerBytes(p, pEnd, lowerCase(text.subSequence(i, end).toString()));
+            }
+            if (lower[p++] != c) {
+                return false;
+            }
+        }
+        return p == pEnd;
+    }
+
+    /**
+     * Case-insensitive hash of text[start, end), computed over its lowercased chars.
+     */
+    public static int lowerHash(CharSequence text, int start, int end) {
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + Character.toLowerCase(text.charAt(i));
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Lowercases char by char, exactly like lowerHash() and equalsIgnoreCase() do, so the
+     * stored forms and lookups always agree.
+     */
+    static String lowerCase(String text) {
+        char[] chars = new char[text.length()];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(text.charAt(i));
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return Whether lower[p, pEnd) holds the UTF-8 bytes of the given (lowercase) rest of a text
+     */
+    private boolean equalsLowerBytes(int p, int pEnd, String rest) {
+        byte[] utf8 = rest.getBytes(StandardCharsets.UTF_8);
+        if (pEnd - p != utf8.length) {
+            return false;
+        }
+        for (byte b : utf8) {
+            if (lower.get(p++) != b) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] pack(byte[][] texts, int size, int[] offsets) {
+        byte[] packed = new byte[size];
+        int position = 0;
+        for (int v = 0; v < texts.length; v++) {
+            offsets[v] = position;
+            System.arraycopy(texts[v], 0, packed, position, texts[v].length);
+            position += texts[v].length;
+        }
+        offsets[texts.length] = position;
+        return packed;
+    }
+
+    // Sections, for MappedWordGraph to write out
+
+    ByteBuffer textBytes() {
+        return text.duplicate();
+    }
+
+    IntBuffer textOffsets() {
+        return offsets.duplicate();
+    }
+
+    ByteBuffer lowerBytes() {
+        return lower.duplicate();
+    }
+
+    IntBuffer lowerOffsets() {
+        return lowerOffsets.duplicate();
+    }
+
+    IntBuffer hashes() {
+        return hashes.duplicate();
+    }
+
+    IntBuffer lowerHashes() {
+        return lowerHashes.duplicate();
+    }
+}
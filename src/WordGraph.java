@@ -0,0 +1,96 @@
+/**
+ * A directed graph of words, where every word is a vertex identified by an int id.
+ *
+ * Generation only ever asks for the successors of a vertex that have a given type,
+ * so that is the one traversal primitive every storage layout has to provide.
+ * Successors are vertex ids, so the next step jumps straight to the successor's own
+ * list, and the per-word accessors below take ids too, so a walk never has to look
+ * a word up or touch its Word object.
+ * Those successors come ranked from most to least frequent, so a scorer can stop
+ * as soon as the remaining frequencies are too low to win.
+ */
+public interface WordGraph {
+
+    int size();
+
+    /**
+     * @return Total number of (explicit or implied) edges
+     */
+    long edgeCount();
+
+    /**
+     * @return A new Word with the text, frequency, type and id of the given vertex (graphs
+     *         keep their words in a WordArena and plain arrays, not as Word objects)
+     */
+    default Word getWord(int id) {
+        Word word = new Word(getText(id), getFrequency(id), getTypeId(id));
+        word.setId(id);
+        return word;
+    }
+
+    /**
+     * @return Texts of every word, with their lowercase forms and hashes
+     */
+    WordArena getTexts();
+
+    /**
+     * @return Text of the given word
+     */
+    default String getText(int id) {
+        return getTexts().getText(id);
+    }
+
+    /**
+     * @return Type id of the given word (see WordTypes)
+     */
+    int getTypeId(int id);
+
+    /**
+     * @return Frequency of the given word when the graph was built, which is what successors are ranked by
+     */
+    int getFrequency(int id);
+
+    /**
+     * @return Bitmask of every word type id that appears in the graph (see WordTypes)
+     */
+    long getTypeMask();
+
+    /**
+     * Fills the given run with the successors of vertex id that have the given type,
+     * from most to least frequent. The run is reused by the caller, so this does not allocate.
+     *
+     * @param id Source vertex id
+     * @param type Type id of the successors to return
+     * @param run Run to fill with the matching successor ids
+     * @return The same run, for convenience
+     */
+    SuccessorRun successors(int id, int type, SuccessorRun run);
+
+    /**
+     * Materializes the graph as a linked-list adjacency list, where each vertex
+     * is followed by a chain of Word copies (one per outgoing edge).
+     *
+     * This is only kept for callers that still walk Word.getNext(); it allocates
+     * one Word per edge, so no graph stores its edges this way.
+     */
+    default Word[] toAdjacencyList() {
+        Word[] adjacencyList = new Word[size()];
+        SuccessorRun run = new SuccessorRun();
+        for (int v = 0; v < size(); v++) {
+            Word vertex = getWord(v);
+            for (int type = 0; type < WordTypes.MAX_TYPES; type++) {
+                if (!WordTypes.contains(getTypeMask(), type)) {
+                    continue;
+                }
+                successors(v, type, run);
+                for (int i = run.size() - 1; i >= 0; i--) {
+                    Word edge = getWord(run.get(i));
+                    edge.setNext(vertex.getNext());
+                    vertex.setNext(edge);
+                }
+            }
+            adjacencyList[v] = vertex;
+        }
+        return adjacencyList;
+    }
+}
@@ -0,0 +1,323 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Builds a WordGraph from the words of a dictionary and a list of sentence structures.
+ *
+ * The sentence structures are first reduced to their distinct type transitions
+ * (e.g. Subject -> Verb appears in five structures but is only expanded once).
+ * build() expands them into an explicit CSR graph: vertex ids are taken straight from
+ * Word.getId(), and duplicate edges are filtered with a reusable bitset, so building
+ * costs O(V + E) instead of a scan per edge. buildImplicit() keeps the transitions
+ * at the type level instead, which costs O(V) no matter how many edges they imply.
+ *
+ * Individual words can be given their own successors with overrideSuccessors();
+ * both graph layouts honor them.
+ *
+ * In both layouts the successors of each type are ranked by descending frequency,
+ * which lets generation stop scanning as soon as no remaining word can win.
+ */
+public class WordGraphBuilder {
+    /** Vertex count from which build() switches to the parallel mode. */
+    public static final int PARALLEL_THRESHOLD = 20000;
+    private static final int MIN_CHUNK_SIZE = 256;
+
+    private final Word[] vertices;
+    private final int typeCount;
+    private final long[] transitionMasks;
+    private final int[][] toTypes;
+    private final int[][] rankedIdsByType;
+    private final HashMap<Integer, int[]> overrides;
+    private long buildTimeNanos;
+
+    /**
+     * @param wordsByType Hashmap of words by type from buildDictionary()
+     * @param structures Sentence structures (as type ids) whose consecutive types become edges
+     */
+    public WordGraphBuilder(HashMap<String, ArrayList<Word>> wordsByType, int[][] structures) {
+        ArrayList<Word> allWords = new ArrayList<>();
+        for (ArrayList<Word> wordList : wordsByType.values()) {
+            allWords.addAll(wordList);
+        }
+        vertices = new Word[allWords.size()];
+        for (int i = 0; i < allWords.size(); i++) {
+            vertices[i] = allWords.get(i);
+            vertices[i].setId(i);
+        }
+
+        typeCount = WordTypes.count();
+        rankedIdsByType = new int[typeCount][];
+        for (String type : wordsByType.keySet()) {
+            rankedIdsByType[WordTypes.intern(type, this)] = rankByFrequency(wordsByType.get(type));
+        }
+
+        // Distinct transitions, in order of first appearance
+        transitionMasks = new long[typeCount];
+        toTypes = new int[typeCount][0];
+        for (int[] structure : structures) {
+            for (int i = 0; i < structure.length - 1; i++) {
+                int from = structure[i];
+                int to = structure[i + 1];
+                if (!WordTypes.contains(transitionMasks[from], to)) {
+                    transitionMasks[from] |= WordTypes.mask(to);
+                    toTypes[from] = Arrays.copyOf(toTypes[from], toTypes[from].length + 1);
+                    toTypes[from][toTypes[from].length - 1] = to;
+                }
+            }
+        }
+        overrides = new HashMap<>();
+    }
+
+    /**
+     * Replaces the successors of one word with an explicit list, instead of every word
+     * of the types that its type transitions to.
+     *
+     * @param from Word whose successors are replaced; must be in this builder's dictionary
+     * @param successors Its new successors; also must be in this builder's dictionary
+     */
+    public void overrideSuccessors(Word from, ArrayList<Word> successors) {
+        checkVertex(from);
+        LinkedHashMap<Integer, ArrayList<Word>> byType = new LinkedHashMap<>();
+        for (Word successor : successors) {
+            checkVertex(successor);
+            byType.putIfAbsent(successor.getTypeId(), new ArrayList<>());
+            byType.get(successor.getTypeId()).add(successor);
+        }
+
+        int[] ids = new int[successors.size()];
+        int count = 0;
+        BitSet seen = new BitSet(vertices.length);
+        for (ArrayList<Word> group : byType.values()) {
+            for (int id : rankByFrequency(group)) {
+                if (!seen.get(id)) {
+                    seen.set(id);
+                    ids[count++] = id;
+                }
+            }
+        }
+        overrides.put(from.getId(), Arrays.copyOf(ids, count));
+    }
+
+    /**
+     * Builds the graph, in parallel if the lexicon is large enough to benefit from it.
+     *
+     * @return The finished CSR graph
+     */
+    public CsrWordGraph build() {
+        return build(vertices.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1);
+    }
+
+    /**
+     * Builds the graph, visiting each vertex once and appending its successors in order.
+     *
+     * In parallel mode the vertices are split into contiguous ranges that are filled by
+     * the common ForkJoinPool, each into its own edge buffer. The buffers are then merged
+     * in vertex order, so the result is identical to the sequential build.
+     *
+     * @param parallel Whether to partition the vertices across the common ForkJoinPool
+     * @return The finished CSR graph
+     */
+    public CsrWordGraph build(boolean parallel) {
+        long start = System.nanoTime();
+
+        EdgeChunk[] chunks;
+        if (parallel) {
+            int chunkCount = Math.max(1, Math.min(vertices.length / MIN_CHUNK_SIZE,
+                ForkJoinPool.getCommonPoolParallelism() * 4));
+            chunks = new EdgeChunk[chunkCount];
+            IntStream.range(0, chunkCount).parallel().forEach(c -> {
+                int from = (int) ((long) vertices.length * c / chunkCount);
+                int to = (int) ((long) vertices.length * (c + 1) / chunkCount);
+                chunks[c] = fillRange(from, to);
+            });
+        } else {
+            chunks = new EdgeChunk[] { fillRange(0, vertices.length) };
+        }
+
+        int[] offsets = new int[vertices.length + 1];
+        long edgeCount = 0;
+        for (EdgeChunk chunk : chunks) {
+            for (int v = chunk.from; v < chunk.to; v++) {
+                offsets[v] = (int) edgeCount;
+                edgeCount += chunk.degrees[v - chunk.from];
+            }
+        }
+        if (edgeCount > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many edges for a CSR graph: " + edgeCount);
+        }
+        offsets[vertices.length] = (int) edgeCount;
+
+        int[] targets;
+        if (chunks.length == 1 && chunks[0].count == chunks[0].targets.length) {
+            targets = chunks[0].targets;
+        } else {
+            targets = new int[(int) edgeCount];
+            for (EdgeChunk chunk : chunks) {
+                if (chunk.to > chunk.from) {
+                    System.arraycopy(chunk.targets, 0, targets, offsets[chunk.from], chunk.count);
+                }
+            }
+        }
+
+        CsrWordGraph graph = new CsrWordGraph(vertices, offsets, targets);
+        buildTimeNanos = System.nanoTime() - start;
+        return graph;
+    }
+
+    /**
+     * Fills the successors of the vertices in [from, to) into a private edge buffer.
+     */
+    private EdgeChunk fillRange(int from, int to) {
+        long capacity = 0;
+        for (int v = from; v < to; v++) {
+            capacity += maxDegree(v);
+        }
+        if (capacity > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many edges for a CSR graph: " + capacity);
+        }
+
+        EdgeChunk chunk = new EdgeChunk(from, to, (int) capacity);
+        BitSet seen = new BitSet(vertices.length);
+
+        for (int v = from; v < to; v++) {
+            int first = chunk.count;
+            int[] override = overrides.get(v);
+            if (override != null) {
+                System.arraycopy(override, 0, chunk.targets, first, override.length);
+                chunk.count += override.length;
+                chunk.degrees[v - from] = override.length;
+                continue;
+            }
+            for (int toType : toTypes[vertices[v].getTypeId()]) {
+                int[] toIds = rankedIdsByType[toType];
+                if (toIds == null) {
+                    continue;
+                }
+                for (int target : toIds) {
+                    if (!seen.get(target)) {
+                        seen.set(target);
+                        chunk.targets[chunk.count++] = target;
+                    }
+                }
+            }
+            for (int e = first; e < chunk.count; e++) {
+                seen.clear(chunk.targets[e]);
+            }
+            chunk.degrees[v - from] = chunk.count - first;
+        }
+        return chunk;
+    }
+
+    /**
+     * Builds an ImplicitWordGraph, which stores each type transition once instead of
+     * every word-to-word edge it implies. Only overridden words get explicit successors.
+     *
+     * @return The finished implicit graph
+     */
+    public WordGraph buildImplicit() {
+        long start = System.nanoTime();
+
+        BitSet overridden = new BitSet(vertices.length);
+        int[] overrideOffsets = new int[vertices.length + 1];
+        int overrideCount = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            overrideOffsets[v] = overrideCount;
+            int[] override = overrides.get(v);
+            if (override != null) {
+                overridden.set(v);
+                overrideCount += override.length;
+            }
+        }
+        overrideOffsets[vertices.length] = overrideCount;
+        int[] overrideTargets = new int[overrideCount];
+        for (Integer v : overrides.keySet()) {
+            int[] override = overrides.get(v);
+            System.arraycopy(override, 0, overrideTargets, overrideOffsets[v], override.length);
+        }
+
+        WordGraph graph = new ImplicitWordGraph(vertices, rankedIdsByType, transitionMasks,
+            overridden, overrideOffsets, overrideTargets);
+        buildTimeNanos = System.nanoTime() - start;
+        return graph;
+    }
+
+    /**
+     * @return Number of edges an explicit build would store, without building anything
+     */
+    public long estimateEdgeCount() {
+        long total = 0;
+        for (int v = 0; v < vertices.length; v++) {
+            total += maxDegree(v);
+        }
+        return total;
+    }
+
+    /**
+     * @return Time taken by the last call to build() or buildImplicit(), in milliseconds
+     */
+    public double getBuildTimeMillis() {
+        return buildTimeNanos / 1_000_000.0;
+    }
+
+    private void checkVertex(Word word) {
+        int id = word.getId();
+        if (id < 0 || id >= vertices.length || vertices[id] != word) {
+            throw new IllegalArgumentException("Word is not in this dictionary: " + word);
+        }
+    }
+
+    /**
+     * Upper bound on the out-degree of the given vertex.
+     */
+    private int maxDegree(int v) {
+        int[] override = overrides.get(v);
+        if (override != null) {
+            return override.length;
+        }
+        int degree = 0;
+        for (int toType : toTypes[vertices[v].getTypeId()]) {
+            int[] toIds = rankedIdsByType[toType];
+            if (toIds != null) {
+                degree += toIds.length;
+            }
+        }
+        return degree;
+    }
+
+    /**
+     * @return Ids of the given words, from most to least frequent (ties keep their order)
+     */
+    private static int[] rankByFrequency(ArrayList<Word> words) {
+        ArrayList<Word> ranked = new ArrayList<>(words);
+        ranked.sort(Comparator.comparingInt(Word::getFrequency).reversed());
+        int[] ids = new int[ranked.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = ranked.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Successors of a contiguous range of vertices, filled by a single worker.
+     */
+    private static class EdgeChunk {
+        final int from;
+        final int to;
+        final int[] degrees;
+        final int[] targets;
+        int count;
+
+        EdgeChunk(int from, int to, int capacity) {
+            this.from = from;
+            this.to = to;
+            this.degrees = new int[to - from];
+            this.targets = new int[capacity];
+        }
+    }
+}
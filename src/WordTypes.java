@@ -0,0 +1,209 @@
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Registry that interns word type names ("Subject", "Verb", ...) into small int ids.
+ *
+ * Ids are assigned in order of first use and never change, so types can be compared
+ * with == and sets of types can be stored as a long bitmask (bit i set for type id i).
+ * That limits the registry to 64 types at a time.
+ *
+ * Types interned with intern(name) stay registered for good. Types interned on behalf of
+ * a user (a loaded dictionary, a graph, a grammar) only stay while some user of theirs is
+ * reachable: once all 64 ids are taken, the id of a type that nothing uses any more is
+ * given to the next new type. Reloading lexicons that rename their types therefore does
+ * not run out of ids. Users are told apart by identity, whatever their equals() says, and
+ * an unreachable user frees its ids once the garbage collector has cleared it.
+ */
+public final class WordTypes {
+    public static final int MAX_TYPES = 64;
+
+    // Declared before the constants below, which are interned during class initialization
+    private static final HashMap<String, Integer> ids = new HashMap<>();
+    private static volatile String[] names = new String[0];
+    private static long pinned;
+    /** Types used by each user; users are held weakly, so their types are freed with them */
+    private static final ArrayList<User> users = new ArrayList<>();
+    private static final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+
+    public static final int SUBJECT = intern("Subject");
+    public static final int VERB = intern("Verb");
+    public static final int NOUN = intern("Noun");
+    public static final int ADVERB = intern("Adverb");
+    public static final int AUXILIARY = intern("Auxiliary");
+    public static final int PREPOSITION = intern("Preposition");
+
+    private WordTypes() {
+    }
+
+    /**
+     * Returns the id of the given type, registering it for good if it has not been seen before.
+     *
+     * @param name Type name, as written in the lexicon
+     * @return Its id, between 0 and MAX_TYPES - 1
+     */
+    public static synchronized int intern(String name) {
+        int id = register(name);
+        pinned |= mask(id);
+        return id;
+    }
+
+    /**
+     * Returns the id of the given type, registering it if it has not been seen before, and
+     * records that the user depends on it, so the id is not reused while the user is reachable.
+     *
+     * @param name Type name, as written in the lexicon
+     * @param user Object that keeps the id, e.g. the graph being built
+     * @return Its id, between 0 and MAX_TYPES - 1
+     */
+    public static synchronized int intern(String name, Object user) {
+        int id = register(name);
+        use(user, mask(id));
+        return id;
+    }
+
+    /**
+     * Records that the user depends on the given types (see intern(name, user)). The user is
+     * held weakly and told apart by identity, so it may be any object that lives exactly as long
+     * as the ids are needed.
+     *
+     * @param typeMask Bitmask of type ids
+     */
+    public static synchronized void use(Object user, long typeMask) {
+        purge();
+        if (!users.isEmpty()) {
+            User last = users.get(users.size() - 1);
+            if (last.get() == user) {
+                last.typeMask |= typeMask;
+                return;
+            }
+        }
+        users.add(new User(user, typeMask));
+    }
+
+    private static int register(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        if (names.length < MAX_TYPES) {
+            String[] grown = Arrays.copyOf(names, names.length + 1);
+            grown[names.length] = name;
+            ids.put(name, names.length);
+            names = grown;
+            return grown.length - 1;
+        }
+
+        int free = unusedId();
+        if (free < 0) {
+            throw new IllegalStateException("Too many word types in use (max " + MAX_TYPES + "): " + name);
+        }
+        String[] renamed = names.clone();
+        ids.remove(renamed[free]);
+        renamed[free] = name;
+        ids.put(name, free);
+        names = renamed;
+        return free;
+    }
+
+    /**
+     * @return An id that is neither pinned nor used by a reachable user, or -1
+     */
+    private static int unusedId() {
+        purge();
+        long used = pinned;
+        for (User user : users) {
+            used |= user.typeMask;
+        }
+        return (used == -1L) ? -1 : Long.numberOfTrailingZeros(~used);
+    }
+
+    /**
+     * Forgets the users that the garbage collector has cleared.
+     */
+    private static void purge() {
+        boolean any = false;
+        while (cleared.poll() != null) {
+            any = true;
+        }
+        if (any) {
+            users.removeIf(user -> user.get() == null);
+        }
+    }
+
+    /**
+     * @return Id of the given type, or -1 if it has never been interned
+     */
+    public static synchronized int lookup(String name) {
+        Integer id = ids.get(name);
+        return (id == null) ? -1 : id;
+    }
+
+    public static String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * @return Number of ids handed out so far (at most MAX_TYPES); every id is below this
+     */
+    public static int count() {
+        return names.length;
+    }
+
+    public static long mask(int id) {
+        return 1L << id;
+    }
+
+    public static boolean contains(long mask, int id) {
+        return (mask & (1L << id)) != 0;
+    }
+
+    /**
+     * @return Rank of the given type among the types of the mask (which must contain it), so
+     *         per-type data of a graph needs Long.bitCount(mask) slots instead of MAX_TYPES
+     */
+    public static int indexIn(long mask, int id) {
+        return Long.bitCount(mask & (mask(id) - 1));
+    }
+
+    /**
+     * @return Size of a table with one slot per (vertex, type of the mask) pair
+     * @throws IllegalStateException If that is too large for an array
+     */
+    public static int groupCount(int vertices, long mask) {
+        long count = (long) vertices * Long.bitCount(mask);
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many (word, type) groups for an array: " + count);
+        }
+        return (int) count;
+    }
+
+    /**
+     * Interns every type of the given sentence structures.
+     *
+     * @return The structures with each type name replaced by its id
+     */
+    public static int[][] internAll(String[][] structures) {
+        int[][] typeIds = new int[structures.length][];
+        for (int s = 0; s < structures.length; s++) {
+            typeIds[s] = new int[structures[s].length];
+            for (int i = 0; i < structures[s].length; i++) {
+                typeIds[s][i] = intern(structures[s][i]);
+            }
+        }
+        return typeIds;
+    }
+
+    /** A weakly held user and the types it depends on. */
+    private static final class User extends WeakReference<Object> {
+        long typeMask;
+
+        User(Object user, long typeMask) {
+            super(user, cleared);
+            this.typeMask = typeMask;
+        }
+    }
+}